@@ -0,0 +1,224 @@
+package com.elasticsql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 把SELECT中的聚合函数编译为Elasticsearch聚合
+ *
+ * COUNT(*) 不生成聚合，在桶内读取doc_count，没有GROUP BY时读取命中总数；
+ * 同一字段上有多个不同的聚合函数时合并为一个stats聚合，
+ * 包含标准差或方差时使用extended_stats。COUNT(DISTINCT) 和APPROX_COUNT_DISTINCT使用cardinality，
+ * 同一字段上的多个百分位数合并为一个percentiles聚合。
+ *
+ * 只有一个GROUP BY字段时，ORDER BY和LIMIT下推为terms聚合的order和size（histogram由bucket_sort截取），
+ * Elasticsearch在分片上只保留排名靠前的桶。HAVING编译为最内层的bucket_selector，
+ * 这时terms先返回maxBuckets个桶，过滤后再由bucket_sort按LIMIT截取。
+ */
+final class AggregationCompiler {
+
+    private AggregationCompiler() {
+    }
+
+    static AggregationPlan compile(QueryModel model, ConverterConfig config) {
+        // 按字段和聚合方式分组：普通聚合函数合并为stats，去重计数和百分位数各自单独计算
+        boolean countAll = false;
+        Map<String, List<QueryModel.Metric>> metricsByKey = new LinkedHashMap<>();
+        for (QueryModel.Metric metric : model.getMetrics()) {
+            if (metric.field == null) {
+                countAll = true;
+            } else {
+                metricsByKey.computeIfAbsent(aggKey(metric), key -> new ArrayList<>()).add(metric);
+            }
+        }
+
+        // 每组生成一个指标聚合，合并后的聚合名称不能与SELECT中的别名重复
+        List<AggregationPlan.MetricAgg> aggs = new ArrayList<>(metricsByKey.size());
+        Map<String, AggregationPlan.MetricAgg> aggByKey = new HashMap<>();
+        Set<String> names = new HashSet<>();
+        for (QueryModel.Metric metric : model.getMetrics()) {
+            names.add(metric.name);
+        }
+        for (Map.Entry<String, List<QueryModel.Metric>> entry : metricsByKey.entrySet()) {
+            List<QueryModel.Metric> metrics = entry.getValue();
+            QueryModel.Metric first = metrics.get(0);
+            String field = first.field;
+
+            AggregationPlan.MetricAgg agg;
+            if (first.function.equals("cardinality")) {
+                agg = new AggregationPlan.MetricAgg(first.name, "cardinality", field);
+            } else if (first.function.equals("percentile")) {
+                Set<String> percents = new LinkedHashSet<>();
+                for (QueryModel.Metric metric : metrics) {
+                    percents.add(metric.argument);
+                }
+                String name = percents.size() > 1 ? uniqueName("percentiles_" + field, names) : first.name;
+                agg = new AggregationPlan.MetricAgg(name, "percentiles", field, new ArrayList<>(percents));
+            } else {
+                Set<String> functions = new LinkedHashSet<>();
+                boolean extended = false;
+                for (QueryModel.Metric metric : metrics) {
+                    functions.add(metric.function);
+                    extended |= isExtended(metric.function);
+                }
+
+                if (extended) {
+                    agg = new AggregationPlan.MetricAgg(uniqueName("extended_stats_" + field, names),
+                            "extended_stats", field);
+                } else if (functions.size() > 1) {
+                    agg = new AggregationPlan.MetricAgg(uniqueName("stats_" + field, names), "stats", field);
+                } else {
+                    String function = functions.iterator().next();
+                    agg = new AggregationPlan.MetricAgg(first.name,
+                            function.equals("count") ? "value_count" : function, field);
+                }
+            }
+            aggs.add(agg);
+            aggByKey.put(entry.getKey(), agg);
+        }
+
+        // 按SELECT顺序记录每个聚合函数的取值位置
+        List<AggregationPlan.MetricRef> refs = new ArrayList<>(model.getMetrics().size());
+        for (QueryModel.Metric metric : model.getMetrics()) {
+            if (metric.field == null) {
+                refs.add(new AggregationPlan.MetricRef(metric.name, null, AggregationPlan.DOC_COUNT));
+                continue;
+            }
+            AggregationPlan.MetricAgg agg = aggByKey.get(aggKey(metric));
+            String key;
+            if (agg.type.equals("percentiles")) {
+                // 响应中百分位数的键为double的字符串形式，如 95.0、99.9
+                key = String.valueOf(Double.parseDouble(metric.argument));
+            } else {
+                key = agg.type.endsWith("stats") ? statsKey(metric.function) : "value";
+            }
+            refs.add(new AggregationPlan.MetricRef(metric.name, agg.name, key));
+        }
+
+        Map<String, String> paths = new HashMap<>();
+        for (AggregationPlan.MetricRef ref : refs) {
+            paths.put(ref.name, ref.path());
+        }
+
+        // HAVING的变量改为桶内的取值路径
+        QueryModel.Having having = null;
+        if (model.getHaving() != null) {
+            Map<String, String> bucketsPath = new LinkedHashMap<>();
+            for (Map.Entry<String, String> entry : model.getHaving().bucketsPath.entrySet()) {
+                bucketsPath.put(entry.getKey(), paths.get(entry.getValue()));
+            }
+            having = new QueryModel.Having(model.getHaving().script, bucketsPath, model.getHaving().params);
+        }
+
+        // 排序和桶数只下推到单层terms聚合，多层嵌套时每层的前N个不等于组合的前N个
+        List<QueryModel.Sort> order = new ArrayList<>();
+        Predicate.Value termsSize = null;
+        Predicate.Value bucketSortFrom = null;
+        Predicate.Value bucketSortSize = null;
+        boolean pushDown = model.getGroupBy().size() == 1 && config.getGroupByMode() == GroupByMode.TERMS;
+        if (pushDown) {
+            String key = model.getGroupBy().get(0).name;
+            for (QueryModel.Sort sort : model.getSort()) {
+                if (sort.field.equals(key)) {
+                    order.add(new QueryModel.Sort("_key", sort.asc));
+                } else if (paths.containsKey(sort.field)) {
+                    order.add(new QueryModel.Sort(paths.get(sort.field), sort.asc));
+                } else {
+                    throw new UnsupportedOperationException(
+                            "ORDER BY " + sort.field + " must reference the GROUP BY column or an aggregate");
+                }
+            }
+        }
+
+        Predicate.Value from = model.getBucketFrom();
+        Predicate.Value size = model.getBucketSize();
+        boolean offset = from != null && (from.isParameter() || from.getNumber().signum() != 0);
+        if (having != null && config.getGroupByMode() == GroupByMode.TERMS && model.getGroupBy().size() > 1) {
+            // 每层terms都要取出全部候选桶，桶数是各层size的乘积，会超过search.max_buckets
+            throw new UnsupportedOperationException(
+                    "HAVING with multiple GROUP BY columns requires the COMPOSITE GROUP BY mode");
+        }
+        if (having != null) {
+            // HAVING需要看到全部候选桶，过滤之后再截取；composite聚合按页过滤，不使用terms的size
+            termsSize = pushDown ? Predicate.Value.number(String.valueOf(config.getMaxBuckets())) : null;
+            if (pushDown && size != null) {
+                bucketSortFrom = offset ? from : null;
+                bucketSortSize = size;
+            }
+        } else if (pushDown && size != null) {
+            if (!model.getGroupBy().get(0).isTerms()) {
+                // histogram没有size，桶数由bucket_sort截取
+                bucketSortFrom = offset ? from : null;
+                bucketSortSize = size;
+            } else if (!offset) {
+                termsSize = size;
+            } else if (from.isParameter() || size.isParameter()) {
+                throw new UnsupportedOperationException(
+                        "Parameters are not supported in LIMIT with OFFSET on GROUP BY");
+            } else {
+                // terms返回前from + size个桶，由bucket_sort跳过前from个
+                int total = from.getNumber().intValue() + size.getNumber().intValue();
+                termsSize = Predicate.Value.number(String.valueOf(total));
+                bucketSortFrom = from;
+            }
+        }
+
+        return new AggregationPlan(model.getGroupBy(), aggs, refs, countAll && model.getGroupBy().isEmpty(),
+                order, termsSize, bucketSortFrom, bucketSortSize, having);
+    }
+
+    /**
+     * 合并后的聚合名称，与别名或其他聚合重名时加上序号，如 stats_s_1
+     */
+    private static String uniqueName(String name, Set<String> names) {
+        String unique = name;
+        for (int i = 1; !names.add(unique); i++) {
+            unique = name + "_" + i;
+        }
+        return unique;
+    }
+
+    /**
+     * 可以合并为一个指标聚合的分组键
+     */
+    private static String aggKey(QueryModel.Metric metric) {
+        switch (metric.function) {
+            case "cardinality":
+            case "percentile":
+                return metric.function + ":" + metric.field;
+            default:
+                return "stats:" + metric.field;
+        }
+    }
+
+    private static boolean isExtended(String function) {
+        return function.startsWith("stddev") || function.startsWith("var");
+    }
+
+    /**
+     * 聚合函数在stats/extended_stats结果中对应的字段
+     */
+    private static String statsKey(String function) {
+        switch (function) {
+            case "stddev":
+            case "stddev_pop":
+                return "std_deviation";
+            case "stddev_samp":
+                return "std_deviation_sampling";
+            case "variance":
+            case "var_pop":
+                return "variance";
+            case "var_samp":
+                return "variance_sampling";
+            default:
+                // count、sum、avg、min、max
+                return function;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.elasticsql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 编译后的聚合：分桶字段、需要Elasticsearch计算的指标聚合，SELECT中每个聚合函数的取值位置，
+ * 以及下推到terms聚合的排序、桶数和HAVING
+ */
+final class AggregationPlan {
+    /**
+     * 读取桶的doc_count（没有GROUP BY时为命中总数）
+     */
+    static final String DOC_COUNT = "doc_count";
+
+    private final List<QueryModel.Bucket> groupBy;
+    private final List<MetricAgg> aggs;
+    private final List<MetricRef> refs;
+    private final boolean trackTotalHits;
+    private final List<QueryModel.Sort> order;
+    private final Predicate.Value termsSize;
+    private final Predicate.Value bucketSortFrom;
+    private final Predicate.Value bucketSortSize;
+    private final QueryModel.Having having;
+
+    AggregationPlan(List<QueryModel.Bucket> groupBy, List<MetricAgg> aggs, List<MetricRef> refs, boolean trackTotalHits,
+                    List<QueryModel.Sort> order, Predicate.Value termsSize, Predicate.Value bucketSortFrom,
+                    Predicate.Value bucketSortSize, QueryModel.Having having) {
+        this.groupBy = Collections.unmodifiableList(new ArrayList<>(groupBy));
+        this.aggs = Collections.unmodifiableList(new ArrayList<>(aggs));
+        this.refs = Collections.unmodifiableList(new ArrayList<>(refs));
+        this.trackTotalHits = trackTotalHits;
+        this.order = Collections.unmodifiableList(new ArrayList<>(order));
+        this.termsSize = termsSize;
+        this.bucketSortFrom = bucketSortFrom;
+        this.bucketSortSize = bucketSortSize;
+        this.having = having;
+    }
+
+    /**
+     * 分桶，由外到内
+     */
+    List<QueryModel.Bucket> getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * 最内层的指标聚合
+     */
+    List<MetricAgg> getAggs() {
+        return aggs;
+    }
+
+    /**
+     * SELECT中聚合函数的取值位置，与SELECT顺序一致
+     */
+    List<MetricRef> getRefs() {
+        return refs;
+    }
+
+    /**
+     * 是否需要精确的命中总数（没有GROUP BY的COUNT(*)）
+     */
+    boolean isTrackTotalHits() {
+        return trackTotalHits;
+    }
+
+    /**
+     * terms聚合的order，字段为_key、_count或指标聚合的取值路径
+     */
+    List<QueryModel.Sort> getOrder() {
+        return order;
+    }
+
+    /**
+     * 每层terms聚合的size，为null时使用Elasticsearch的默认值
+     */
+    Predicate.Value getTermsSize() {
+        return termsSize;
+    }
+
+    /**
+     * 最内层bucket_sort跳过的桶数，为null时不跳过
+     */
+    Predicate.Value getBucketSortFrom() {
+        return bucketSortFrom;
+    }
+
+    /**
+     * 最内层bucket_sort保留的桶数，为null时不截取
+     */
+    Predicate.Value getBucketSortSize() {
+        return bucketSortSize;
+    }
+
+    /**
+     * 最内层的bucket_selector，buckets_path已解析为桶内的取值路径，没有HAVING时为null
+     */
+    QueryModel.Having getHaving() {
+        return having;
+    }
+
+    /**
+     * 最内层的桶是否有子聚合
+     */
+    boolean hasSubAggregations() {
+        return !aggs.isEmpty() || having != null || bucketSortFrom != null || bucketSortSize != null;
+    }
+
+    /**
+     * Elasticsearch指标聚合
+     */
+    static final class MetricAgg {
+        final String name;
+        final String type;
+        final String field;
+        final List<String> percents;
+
+        /**
+         * @param name 聚合名称
+         * @param type 聚合类型，如sum、stats、extended_stats、cardinality
+         * @param field 字段
+         */
+        MetricAgg(String name, String type, String field) {
+            this(name, type, field, Collections.emptyList());
+        }
+
+        /**
+         * @param percents percentiles聚合计算的百分位数
+         */
+        MetricAgg(String name, String type, String field, List<String> percents) {
+            this.name = name;
+            this.type = type;
+            this.field = field;
+            this.percents = Collections.unmodifiableList(new ArrayList<>(percents));
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + type + "(" + field + (percents.isEmpty() ? "" : ", " + percents) + ")";
+        }
+    }
+
+    /**
+     * 聚合函数结果的取值位置
+     */
+    static final class MetricRef {
+        final String name;
+        final String agg;
+        final String key;
+
+        /**
+         * @param name SELECT中的聚合名称
+         * @param agg 指标聚合名称，读取doc_count时为null
+         * @param key 聚合结果中的字段，如value、min、std_deviation
+         */
+        MetricRef(String name, String agg, String key) {
+            this.name = name;
+            this.agg = agg;
+            this.key = key;
+        }
+
+        /**
+         * 桶内的取值路径，用于terms的order和buckets_path，如 _count、total、stats_price.max、p[99.9]
+         */
+        String path() {
+            if (agg == null) {
+                return "_count";
+            }
+            // 名称或键中带点号时（如百分位数99.9、字段addr.city）使用方括号形式
+            if (agg.indexOf('.') >= 0 || key.indexOf('.') >= 0) {
+                return agg + "[" + key + "]";
+            }
+            return key.equals("value") ? agg : agg + "." + key;
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + (agg == null ? "" : agg + ".") + key;
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package com.elasticsql;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * 批量并行转换
+ *
+ * 每条SQL作为独立任务提交到执行器，结果按输入顺序返回，单条失败不影响其他SQL。
+ * 转换过程没有共享的可变状态，{@link SelectHandler}、{@link ElasticSqlConverter}
+ * 中的静态ObjectMapper以及配置好的 {@link ConverterConfig} 都可以被多个线程同时使用。
+ */
+public final class BatchConverter {
+
+    private BatchConverter() {
+    }
+
+    /**
+     * 并行转换一批SQL，阻塞直到全部完成
+     * @param sqls SQL列表
+     * @param config 转换配置
+     * @param executor 执行器
+     * @return 与输入顺序一致的结果列表
+     */
+    public static List<BatchResult> convertAll(Collection<String> sqls, ConverterConfig config, Executor executor) {
+        List<CompletableFuture<BatchResult>> futures = new ArrayList<>(sqls.size());
+        int index = 0;
+        for (String sql : sqls) {
+            futures.add(submit(index++, sql, config, executor));
+        }
+
+        List<BatchResult> results = new ArrayList<>(futures.size());
+        for (CompletableFuture<BatchResult> future : futures) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    /**
+     * 流式并行转换，最多同时进行maxInFlight个转换，结果按输入顺序在调用线程上回调
+     * @param sqls SQL序列，可以是惰性生成的
+     * @param config 转换配置
+     * @param executor 执行器
+     * @param maxInFlight 同时进行的最大转换数
+     * @param consumer 结果回调
+     */
+    public static void convertEach(Iterable<String> sqls, ConverterConfig config, Executor executor,
+                                   int maxInFlight, Consumer<BatchResult> consumer) {
+        if (maxInFlight <= 0) {
+            throw new IllegalArgumentException("maxInFlight must be positive");
+        }
+        ArrayDeque<CompletableFuture<BatchResult>> inFlight = new ArrayDeque<>(maxInFlight);
+        Iterator<String> it = sqls.iterator();
+        int index = 0;
+        while (it.hasNext()) {
+            if (inFlight.size() >= maxInFlight) {
+                consumer.accept(inFlight.poll().join());
+            }
+            inFlight.add(submit(index++, it.next(), config, executor));
+        }
+        while (!inFlight.isEmpty()) {
+            consumer.accept(inFlight.poll().join());
+        }
+    }
+
+    /**
+     * 当前JDK是否支持虚拟线程（JDK 21及以上）
+     */
+    public static boolean isVirtualThreadSupported() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    /**
+     * 创建每个任务一个虚拟线程的执行器，使用完后由调用方关闭
+     * @throws UnsupportedOperationException JDK不支持虚拟线程时
+     */
+    public static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads require JDK 21 or later");
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Failed to create virtual thread executor", e);
+        }
+    }
+
+    private static CompletableFuture<BatchResult> submit(int index, String sql, ConverterConfig config,
+                                                         Executor executor) {
+        return CompletableFuture.supplyAsync(() -> convertOne(index, sql, config), executor);
+    }
+
+    private static BatchResult convertOne(int index, String sql, ConverterConfig config) {
+        try {
+            return new BatchResult(index, sql, ElasticSqlConverter.convert(sql, config), null);
+        } catch (Exception | StackOverflowError e) {
+            // 嵌套过深的条件可能在解析或转换时栈溢出，只影响这一条SQL
+            return new BatchResult(index, sql, null, e);
+        }
+    }
+}
@@ -0,0 +1,54 @@
+package com.elasticsql;
+
+/**
+ * 批量转换中单条SQL的结果，成功时包含DSL，失败时包含异常
+ */
+public final class BatchResult {
+    private final int index;
+    private final String sql;
+    private final String dsl;
+    private final Throwable error;
+
+    BatchResult(int index, String sql, String dsl, Throwable error) {
+        this.index = index;
+        this.sql = sql;
+        this.dsl = dsl;
+        this.error = error;
+    }
+
+    /**
+     * 在输入中的位置，从0开始
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    /**
+     * 转换得到的DSL，失败时为null
+     */
+    public String getDsl() {
+        return dsl;
+    }
+
+    /**
+     * 转换失败的异常，成功时为null；条件嵌套过深时为StackOverflowError
+     */
+    public Throwable getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    @Override
+    public String toString() {
+        return isSuccess()
+                ? "BatchResult{index=" + index + ", dsl=" + dsl + "}"
+                : "BatchResult{index=" + index + ", error=" + error.getMessage() + "}";
+    }
+}
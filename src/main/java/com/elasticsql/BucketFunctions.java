@@ -0,0 +1,281 @@
+package com.elasticsql;
+
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.IntervalExpression;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.schema.Column;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * GROUP BY中的分桶函数
+ *
+ * DATE_TRUNC('unit', field[, 'time_zone'])、DATE_FORMAT(field, 'pattern') 和
+ * HISTOGRAM(field, INTERVAL n UNIT) 转换为date_histogram，HISTOGRAM(field, n) 转换为histogram，
+ * 不再按时间戳的原始值生成terms桶。间隔为1个日历单位时使用calendar_interval，其余使用fixed_interval。
+ */
+final class BucketFunctions {
+    /**
+     * 可用作calendar_interval的单位
+     */
+    private static final Set<String> CALENDAR_UNITS = new HashSet<>(Arrays.asList(
+            "minute", "hour", "day", "week", "month", "quarter", "year"));
+
+    /**
+     * 可用作fixed_interval的单位及其后缀
+     */
+    private static final Map<String, String> FIXED_UNITS = new HashMap<>();
+
+    /**
+     * DATE_FORMAT能表示的粒度，由粗到细
+     */
+    private static final List<String> FORMAT_UNITS = Arrays.asList(
+            "year", "month", "day", "hour", "minute", "second");
+
+    /**
+     * DATE_FORMAT说明符 -> Java日期格式
+     */
+    private static final Map<Character, String> FORMAT_PATTERNS = new HashMap<>();
+
+    /**
+     * DATE_FORMAT说明符 -> 时间单位，%p等不表示时间单位的说明符没有对应项
+     */
+    private static final Map<Character, String> FORMAT_SPECIFIER_UNITS = new HashMap<>();
+
+    static {
+        FIXED_UNITS.put("second", "s");
+        FIXED_UNITS.put("minute", "m");
+        FIXED_UNITS.put("hour", "h");
+        FIXED_UNITS.put("day", "d");
+
+        specifier('Y', "yyyy", "year");
+        specifier('y', "yy", "year");
+        specifier('m', "MM", "month");
+        specifier('c', "M", "month");
+        specifier('b', "MMM", "month");
+        specifier('M', "MMMM", "month");
+        specifier('d', "dd", "day");
+        specifier('e', "d", "day");
+        specifier('j', "DDD", "day");
+        // 星期、12小时制的小时和上下午不单独表示一个时间单位，只能与完整的日期、%p一起使用
+        specifier('a', "EEE", null);
+        specifier('W', "EEEE", null);
+        specifier('H', "HH", "hour");
+        specifier('k', "H", "hour");
+        specifier('h', "hh", null);
+        specifier('I', "hh", null);
+        specifier('l', "h", null);
+        specifier('p', "a", null);
+        specifier('i', "mm", "minute");
+        specifier('s', "ss", "second");
+        specifier('S', "ss", "second");
+    }
+
+    private static void specifier(char specifier, String pattern, String unit) {
+        FORMAT_PATTERNS.put(specifier, pattern);
+        if (unit != null) {
+            FORMAT_SPECIFIER_UNITS.put(specifier, unit);
+        }
+    }
+
+    private BucketFunctions() {
+    }
+
+    /**
+     * 把GROUP BY中的函数转换为分桶
+     * @param name 分桶名称
+     */
+    static QueryModel.Bucket bucket(Function function, String name) {
+        List<?> args = function.getParameters() == null ? Collections.emptyList() : function.getParameters();
+        String functionName = function.getName().toUpperCase();
+        switch (functionName) {
+            case "DATE_TRUNC": {
+                if (args.size() < 2 || args.size() > 3 || !(args.get(0) instanceof StringValue)) {
+                    throw new UnsupportedOperationException("DATE_TRUNC requires a unit literal and a field");
+                }
+                String timeZone = args.size() == 3 ? string((Expression) args.get(2), functionName) : null;
+                return dateHistogram(name, field((Expression) args.get(1), functionName), 1,
+                        ((StringValue) args.get(0)).getValue(), null, timeZone);
+            }
+            case "DATE_FORMAT": {
+                if (args.size() != 2) {
+                    throw new UnsupportedOperationException("DATE_FORMAT requires a field and a pattern literal");
+                }
+                String pattern = string((Expression) args.get(1), functionName);
+                StringBuilder format = new StringBuilder(pattern.length() + 8);
+                String unit = convertFormat(pattern, format);
+                return dateHistogram(name, field((Expression) args.get(0), functionName), 1, unit,
+                        format.toString(), null);
+            }
+            case "HISTOGRAM": {
+                if (args.size() != 2) {
+                    throw new UnsupportedOperationException("HISTOGRAM requires a field and an interval");
+                }
+                String field = field((Expression) args.get(0), functionName);
+                Expression interval = (Expression) args.get(1);
+                if (interval instanceof IntervalExpression) {
+                    IntervalExpression expr = (IntervalExpression) interval;
+                    String count = expr.getParameter() == null ? "" : expr.getParameter().replace("'", "").trim();
+                    if (!count.matches("[0-9]+") || expr.getIntervalType() == null) {
+                        throw new UnsupportedOperationException("Unsupported HISTOGRAM interval: " + interval);
+                    }
+                    return dateHistogram(name, field, Long.parseLong(count), expr.getIntervalType(), null, null);
+                }
+                if (interval instanceof LongValue || interval instanceof DoubleValue) {
+                    return new QueryModel.Bucket(name, field, QueryModel.Bucket.HISTOGRAM, interval.toString(),
+                            false, null, null);
+                }
+                throw new UnsupportedOperationException("Unsupported HISTOGRAM interval: " + interval);
+            }
+            default:
+                throw new UnsupportedOperationException("Unsupported GROUP BY expression: " + function);
+        }
+    }
+
+    /**
+     * 按时间单位生成date_histogram分桶
+     */
+    private static QueryModel.Bucket dateHistogram(String name, String field, long count, String unit, String format,
+                                                   String timeZone) {
+        String normalized = unit.toLowerCase();
+        if (normalized.endsWith("s")) {
+            // HOURS、DAYS等复数形式
+            normalized = normalized.substring(0, normalized.length() - 1);
+        }
+
+        String interval;
+        boolean calendar;
+        if (count == 1 && CALENDAR_UNITS.contains(normalized)) {
+            interval = normalized;
+            calendar = true;
+        } else if (count > 0 && FIXED_UNITS.containsKey(normalized)) {
+            interval = count + FIXED_UNITS.get(normalized);
+            calendar = false;
+        } else if (count > 0 && normalized.equals("week")) {
+            interval = count * 7 + "d";
+            calendar = false;
+        } else {
+            // 月、季度、年的长度不固定，只能按一个日历单位分桶
+            throw new UnsupportedOperationException("Unsupported date interval: " + count + " " + unit);
+        }
+        return new QueryModel.Bucket(name, field, QueryModel.Bucket.DATE_HISTOGRAM, interval, calendar, format,
+                timeZone);
+    }
+
+    /**
+     * 把MySQL的DATE_FORMAT模式转换为Java日期格式
+     *
+     * 模式必须包含最细单位之上的所有单位（依次为%Y、%m、%d、%H、%i），
+     * 只有 %H、%W 这类周期性的模式按一天中的小时、星期几等重复分组，date_histogram无法表示。
+     * @param format 转换结果
+     * @return 模式中最细的时间单位，作为分桶间隔
+     */
+    private static String convertFormat(String pattern, StringBuilder format) {
+        StringBuilder literal = new StringBuilder();
+        boolean[] units = new boolean[FORMAT_UNITS.size()];
+        boolean dayOfYear = false;
+        boolean weekday = false;
+        boolean twelveHour = false;
+        boolean amPm = false;
+        for (int i = 0; i < pattern.length(); i++) {
+            char c = pattern.charAt(i);
+            if (c != '%' || i + 1 == pattern.length()) {
+                literal.append(c);
+                continue;
+            }
+
+            char specifier = pattern.charAt(++i);
+            if (specifier == '%') {
+                literal.append('%');
+                continue;
+            }
+            String converted = FORMAT_PATTERNS.get(specifier);
+            if (converted == null) {
+                throw new UnsupportedOperationException("Unsupported DATE_FORMAT specifier: %" + specifier);
+            }
+            appendLiteral(literal, format);
+            format.append(converted);
+
+            String unit = FORMAT_SPECIFIER_UNITS.get(specifier);
+            if (unit != null) {
+                units[FORMAT_UNITS.indexOf(unit)] = true;
+            }
+            dayOfYear |= specifier == 'j';
+            weekday |= specifier == 'a' || specifier == 'W';
+            twelveHour |= specifier == 'h' || specifier == 'I' || specifier == 'l';
+            amPm |= specifier == 'p';
+        }
+        appendLiteral(literal, format);
+
+        if (twelveHour) {
+            if (!amPm) {
+                throw new UnsupportedOperationException(
+                        "DATE_FORMAT pattern with a 12-hour specifier requires %p: " + pattern);
+            }
+            units[FORMAT_UNITS.indexOf("hour")] = true;
+        }
+        if (dayOfYear) {
+            // 年和一年中的第几天确定日期
+            units[FORMAT_UNITS.indexOf("month")] = true;
+        }
+
+        int level = -1;
+        for (int i = 0; i < units.length; i++) {
+            if (units[i]) {
+                level = i;
+            }
+        }
+        if (level < 0) {
+            throw new UnsupportedOperationException("DATE_FORMAT pattern has no date fields: " + pattern);
+        }
+        for (int i = 0; i < level; i++) {
+            if (!units[i]) {
+                throw new UnsupportedOperationException("DATE_FORMAT pattern groups by a repeating "
+                        + FORMAT_UNITS.get(level) + " without the " + FORMAT_UNITS.get(i) + ": " + pattern);
+            }
+        }
+        if (weekday && level < FORMAT_UNITS.indexOf("day")) {
+            throw new UnsupportedOperationException("DATE_FORMAT pattern groups by weekday: " + pattern);
+        }
+        return FORMAT_UNITS.get(level);
+    }
+
+    /**
+     * 写入格式中的普通文本，包含字母或特殊字符时加引号
+     */
+    private static void appendLiteral(StringBuilder literal, StringBuilder format) {
+        if (literal.length() == 0) {
+            return;
+        }
+        String text = literal.toString();
+        literal.setLength(0);
+        if (text.matches("[^A-Za-z'\\[\\]{}#]*")) {
+            format.append(text);
+        } else {
+            format.append('\'').append(text.replace("'", "''")).append('\'');
+        }
+    }
+
+    private static String field(Expression expr, String function) {
+        if (!(expr instanceof Column)) {
+            throw new UnsupportedOperationException(function + " requires a field, found: " + expr);
+        }
+        return ((Column) expr).getColumnName();
+    }
+
+    private static String string(Expression expr, String function) {
+        if (!(expr instanceof StringValue)) {
+            throw new UnsupportedOperationException(function + " requires a string literal, found: " + expr);
+        }
+        return ((StringValue) expr).getValue();
+    }
+}
@@ -0,0 +1,67 @@
+package com.elasticsql;
+
+/**
+ * DSL缓存的统计快照
+ */
+public final class CacheStats {
+    private final long hitCount;
+    private final long missCount;
+    private final long bypassCount;
+    private final long evictionCount;
+    private final int entryCount;
+    private final long byteSize;
+
+    CacheStats(long hitCount, long missCount, long bypassCount, long evictionCount, int entryCount, long byteSize) {
+        this.hitCount = hitCount;
+        this.missCount = missCount;
+        this.bypassCount = bypassCount;
+        this.evictionCount = evictionCount;
+        this.entryCount = entryCount;
+        this.byteSize = byteSize;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * 查到无法模板化的形状、仍走完整转换流程的次数
+     */
+    public long getBypassCount() {
+        return bypassCount;
+    }
+
+    public long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * 当前缓存的SQL形状个数
+     */
+    public int getEntryCount() {
+        return entryCount;
+    }
+
+    /**
+     * 当前缓存占用的估算字节数
+     */
+    public long getByteSize() {
+        return byteSize;
+    }
+
+    public double getHitRate() {
+        long total = hitCount + missCount + bypassCount;
+        return total == 0 ? 0.0 : (double) hitCount / total;
+    }
+
+    @Override
+    public String toString() {
+        return "CacheStats{hits=" + hitCount + ", misses=" + missCount + ", bypasses=" + bypassCount
+                + ", evictions=" + evictionCount
+                + ", entries=" + entryCount + ", bytes=" + byteSize + "}";
+    }
+}
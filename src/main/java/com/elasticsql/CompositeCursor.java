@@ -0,0 +1,108 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * GROUP BY查询的composite聚合分页游标
+ *
+ * 由 {@link ElasticSqlConverter#compositeCursor(String)} 创建，SQL只解析一次，
+ * 每一页的DSL都从中间表示重新生成，只有after参数不同。
+ * 实例不可变，可以在多个线程间共享。
+ *
+ * <pre>
+ * CompositeCursor cursor = ElasticSqlConverter.compositeCursor(sql);
+ * String request = cursor.firstPage();
+ * while (request != null) {
+ *     String response = search(cursor.getIndex(), request);
+ *     // 处理响应中的桶
+ *     request = cursor.nextPage(response);
+ * }
+ * </pre>
+ */
+public final class CompositeCursor {
+    /**
+     * composite聚合的名称
+     */
+    static final String AGGREGATION_NAME = "group_by";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final QueryModel model;
+    private final ConverterConfig config;
+
+    CompositeCursor(QueryModel model, ConverterConfig config) {
+        this.model = model;
+        this.config = config;
+    }
+
+    /**
+     * 目标索引
+     */
+    public String getIndex() {
+        return model.getIndex();
+    }
+
+    /**
+     * 把每一页的响应转换为结果行
+     */
+    public ResultDecoder getDecoder() {
+        return new ResultDecoder(model, config);
+    }
+
+    /**
+     * 第一页的DSL
+     */
+    public String firstPage() throws IOException {
+        return page(null);
+    }
+
+    /**
+     * 从指定after_key之后开始的一页DSL
+     * @param afterKey 上一页响应中的after_key，为null时返回第一页
+     */
+    public String page(Map<String, Object> afterKey) throws IOException {
+        return SelectHandler.render(model.withAfterKey(afterKey), config);
+    }
+
+    /**
+     * 根据上一页的响应生成下一页的DSL
+     * @param response 上一页的Elasticsearch响应
+     * @return 下一页的DSL，已读取完所有桶时返回null
+     */
+    public String nextPage(String response) throws IOException {
+        Map<String, Object> afterKey = afterKey(response);
+        return afterKey == null ? null : page(afterKey);
+    }
+
+    /**
+     * 从响应中读取composite聚合的after_key，只解析到所需的字段，跳过桶的内容
+     * HAVING转换的bucket_selector可能过滤掉一整页的桶，此时响应仍带有after_key，需要继续翻页
+     * @return after_key，没有after_key（已读取完所有桶）时返回null
+     */
+    public static Map<String, Object> afterKey(String response) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT
+                    || !JsonResponses.moveToObjectField(parser, "aggregations")
+                    || !JsonResponses.moveToObjectField(parser, AGGREGATION_NAME)) {
+                return null;
+            }
+
+            Map<String, Object> afterKey = null;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (name.equals("after_key") && token == JsonToken.START_OBJECT) {
+                    afterKey = JsonResponses.readScalars(parser);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+            return afterKey;
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.elasticsql;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 一次解析得到的转换结果：目标索引、DSL以及查询的元数据
+ */
+public final class ConversionResult {
+    private final String index;
+    private final String dsl;
+    private final boolean aggregation;
+    private final List<String> selectFields;
+    private final Integer from;
+    private final Integer size;
+    private final boolean literalDependent;
+    private final boolean countOnly;
+    private final List<String> warnings;
+    private final ResultDecoder decoder;
+    private final List<String> targetIndices;
+    private final String routing;
+    private final Map<String, String> requestParams;
+
+    ConversionResult(String index, String dsl, boolean aggregation, List<String> selectFields,
+                     Integer from, Integer size, boolean literalDependent, boolean countOnly, List<String> warnings,
+                     ResultDecoder decoder, List<String> targetIndices, String routing,
+                     Map<String, String> requestParams) {
+        this.index = index;
+        this.dsl = dsl;
+        this.aggregation = aggregation;
+        this.selectFields = Collections.unmodifiableList(selectFields);
+        this.from = from;
+        this.size = size;
+        this.literalDependent = literalDependent;
+        this.countOnly = countOnly;
+        this.warnings = Collections.unmodifiableList(warnings);
+        this.decoder = decoder;
+        this.targetIndices = Collections.unmodifiableList(targetIndices);
+        this.routing = routing;
+        this.requestParams = Collections.unmodifiableMap(requestParams);
+    }
+
+    /**
+     * 返回带DSL文本的副本
+     */
+    ConversionResult withDsl(String dsl) {
+        return new ConversionResult(index, dsl, aggregation, selectFields, from, size, literalDependent, countOnly,
+                warnings, decoder, targetIndices, routing, requestParams);
+    }
+
+    /**
+     * 目标索引（FROM子句中的表名）
+     */
+    public String getIndex() {
+        return index;
+    }
+
+    /**
+     * 实际搜索的索引：按时间分区规则裁剪后为与WHERE范围重叠的分区索引，没有裁剪时只包含 {@link #getIndex()}
+     * 分区索引可能不存在，请求应带上 ignore_unavailable=true
+     */
+    public List<String> getTargetIndices() {
+        return targetIndices;
+    }
+
+    /**
+     * 请求路径中的索引，多个索引以逗号分隔
+     */
+    public String getTargetIndex() {
+        return String.join(",", targetIndices);
+    }
+
+    /**
+     * 由路由字段的等值条件得到的routing，多个值以逗号分隔，没有时为null
+     */
+    public String getRouting() {
+        return routing;
+    }
+
+    /**
+     * 由提示注释得到的请求参数，如request_cache、preference，应加在请求的URL上，没有时为空Map
+     */
+    public Map<String, String> getRequestParams() {
+        return requestParams;
+    }
+
+    /**
+     * DSL文本，DSL直接写入Writer/OutputStream时为null
+     */
+    public String getDsl() {
+        return dsl;
+    }
+
+    /**
+     * 是否为聚合查询
+     */
+    public boolean isAggregation() {
+        return aggregation;
+    }
+
+    /**
+     * SELECT列表中的字段，有别名时为别名，SELECT * 时为 "*"
+     */
+    public List<String> getSelectFields() {
+        return selectFields;
+    }
+
+    /**
+     * DSL中的from，由参数占位符决定时为null
+     */
+    public Integer getFrom() {
+        return from;
+    }
+
+    /**
+     * DSL中的size，由参数占位符决定时为null
+     */
+    public Integer getSize() {
+        return size;
+    }
+
+    /**
+     * 是否只统计命中数（没有GROUP BY，SELECT中只有COUNT(*)），
+     * 这类查询可以发送到_count，结果为响应中的count（_search时为hits.total.value）
+     */
+    public boolean isCountOnly() {
+        return countOnly;
+    }
+
+    /**
+     * 转换时发现的性能问题，例如以通配符开头的LIKE，没有问题时为空列表
+     */
+    public List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * 把这条DSL的Elasticsearch响应转换为结果行
+     */
+    public ResultDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * DSL是否依赖字面量的值（条件改写时比较了字面量），这类SQL不能按形状缓存
+     */
+    boolean isLiteralDependent() {
+        return literalDependent;
+    }
+
+    @Override
+    public String toString() {
+        return "ConversionResult{index=" + index + ", targetIndices=" + targetIndices + ", routing=" + routing
+                + ", requestParams=" + requestParams + ", aggregation=" + aggregation + ", selectFields=" + selectFields
+                + ", from=" + from + ", size=" + size + ", countOnly=" + countOnly + ", warnings=" + warnings
+                + ", dsl=" + dsl + "}";
+    }
+}
@@ -0,0 +1,418 @@
+package com.elasticsql;
+
+/**
+ * 转换配置
+ *
+ * 通过链式方法设置，之后传给 {@link ElasticSqlConverter} 的各个重载方法使用。
+ * 配置对象可以在多个线程间共享，但开始使用后不应再修改。
+ */
+public class ConverterConfig {
+    private DslFormat format = DslFormat.COMPACT;
+    private volatile DslCache cache;
+    private ParseMode parseMode = ParseMode.JSQLPARSER;
+    private int maxSqlLength = 1 << 20;
+    private int maxNestingDepth = 32;
+    private QueryContext queryContext = QueryContext.FILTER;
+    private boolean optimizePredicates = true;
+    private DslBackend backend = ElasticsearchBackend.INSTANCE;
+    private GroupByMode groupByMode = GroupByMode.TERMS;
+    private int compositeSize = 1000;
+    private int shardSize;
+    private int maxBuckets = 10000;
+    private String timeZone;
+    private int precisionThreshold;
+    private double tdigestCompression;
+    private int hdrSignificantDigits;
+    private int searchAfterSize = 1000;
+    private String tiebreakerField;
+    private String pitKeepAlive = "1m";
+    private ProjectionMode projectionMode = ProjectionMode.SOURCE;
+    private boolean trackTotalHits;
+    private boolean countEndpoint;
+    private int maxTermsCount = 65536;
+    private String reverseFieldSuffix;
+    private SchemaRegistry schemaRegistry;
+    private IndexRouting indexRouting;
+
+    /**
+     * 设置DSL输出格式，默认紧凑输出
+     */
+    public ConverterConfig format(DslFormat format) {
+        this.format = format;
+        return this;
+    }
+
+    public DslFormat getFormat() {
+        return format;
+    }
+
+    /**
+     * 设置转换缓存，缓存中的模板按本配置生成，只能与本配置一起使用
+     */
+    public ConverterConfig cache(DslCache cache) {
+        this.cache = cache;
+        return this;
+    }
+
+    public DslCache getCache() {
+        return cache;
+    }
+
+    /**
+     * 设置SQL解析方式，默认使用CCJSqlParserUtil
+     */
+    public ConverterConfig parseMode(ParseMode parseMode) {
+        this.parseMode = parseMode;
+        return this;
+    }
+
+    public ParseMode getParseMode() {
+        return parseMode;
+    }
+
+    /**
+     * 设置DIRECT/FAST_PATH解析方式下允许的最大SQL长度（字符数），默认1M
+     */
+    public ConverterConfig maxSqlLength(int maxSqlLength) {
+        if (maxSqlLength <= 0) {
+            throw new IllegalArgumentException("maxSqlLength must be positive");
+        }
+        this.maxSqlLength = maxSqlLength;
+        return this;
+    }
+
+    public int getMaxSqlLength() {
+        return maxSqlLength;
+    }
+
+    /**
+     * 设置DIRECT/FAST_PATH解析方式下允许的最大括号嵌套深度，默认32
+     */
+    public ConverterConfig maxNestingDepth(int maxNestingDepth) {
+        if (maxNestingDepth <= 0) {
+            throw new IllegalArgumentException("maxNestingDepth must be positive");
+        }
+        this.maxNestingDepth = maxNestingDepth;
+        return this;
+    }
+
+    public int getMaxNestingDepth() {
+        return maxNestingDepth;
+    }
+
+    /**
+     * 设置WHERE条件的查询上下文，默认使用过滤上下文
+     */
+    public ConverterConfig queryContext(QueryContext queryContext) {
+        this.queryContext = queryContext;
+        return this;
+    }
+
+    public QueryContext getQueryContext() {
+        return queryContext;
+    }
+
+    /**
+     * 是否在生成DSL前改写WHERE条件（合并范围、合并OR为terms、去掉重复条件等），默认开启
+     */
+    public ConverterConfig optimizePredicates(boolean optimizePredicates) {
+        this.optimizePredicates = optimizePredicates;
+        return this;
+    }
+
+    public boolean isOptimizePredicates() {
+        return optimizePredicates;
+    }
+
+    /**
+     * 设置DSL输出后端，默认输出Elasticsearch _search 请求体
+     */
+    ConverterConfig backend(DslBackend backend) {
+        this.backend = backend;
+        return this;
+    }
+
+    DslBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * 设置GROUP BY的转换方式，默认使用嵌套的terms聚合
+     */
+    public ConverterConfig groupByMode(GroupByMode groupByMode) {
+        this.groupByMode = groupByMode;
+        return this;
+    }
+
+    public GroupByMode getGroupByMode() {
+        return groupByMode;
+    }
+
+    /**
+     * 设置composite聚合每页的桶数，默认1000
+     */
+    public ConverterConfig compositeSize(int compositeSize) {
+        if (compositeSize <= 0) {
+            throw new IllegalArgumentException("compositeSize must be positive");
+        }
+        this.compositeSize = compositeSize;
+        return this;
+    }
+
+    public int getCompositeSize() {
+        return compositeSize;
+    }
+
+    /**
+     * 设置terms聚合每个分片返回的候选桶数（shard_size），越大排序越准确、代价越高，
+     * 默认0表示使用Elasticsearch的默认值（size * 1.5 + 10）
+     */
+    public ConverterConfig shardSize(int shardSize) {
+        if (shardSize < 0) {
+            throw new IllegalArgumentException("shardSize must not be negative");
+        }
+        this.shardSize = shardSize;
+        return this;
+    }
+
+    public int getShardSize() {
+        return shardSize;
+    }
+
+    /**
+     * 设置带HAVING的GROUP BY中terms聚合返回的桶数，HAVING在这些桶上过滤后再按LIMIT截取，默认10000
+     */
+    public ConverterConfig maxBuckets(int maxBuckets) {
+        if (maxBuckets <= 0) {
+            throw new IllegalArgumentException("maxBuckets must be positive");
+        }
+        this.maxBuckets = maxBuckets;
+        return this;
+    }
+
+    public int getMaxBuckets() {
+        return maxBuckets;
+    }
+
+    /**
+     * 设置DATE_TRUNC、DATE_FORMAT、HISTOGRAM分桶使用的时区，如 "+08:00"、"Asia/Shanghai"，
+     * DATE_TRUNC的第三个参数优先，默认不设置（UTC）
+     */
+    public ConverterConfig timeZone(String timeZone) {
+        this.timeZone = timeZone;
+        return this;
+    }
+
+    public String getTimeZone() {
+        return timeZone;
+    }
+
+    /**
+     * 设置COUNT(DISTINCT) 的cardinality聚合的precision_threshold，低于该值的计数接近精确，
+     * 内存约为 precisionThreshold * 8 字节，默认0表示使用Elasticsearch的默认值
+     */
+    public ConverterConfig precisionThreshold(int precisionThreshold) {
+        if (precisionThreshold < 0) {
+            throw new IllegalArgumentException("precisionThreshold must not be negative");
+        }
+        this.precisionThreshold = precisionThreshold;
+        return this;
+    }
+
+    public int getPrecisionThreshold() {
+        return precisionThreshold;
+    }
+
+    /**
+     * 设置百分位数TDigest算法的compression，越大越准确、内存越多，默认0表示使用Elasticsearch的默认值
+     */
+    public ConverterConfig tdigestCompression(double tdigestCompression) {
+        if (tdigestCompression < 0) {
+            throw new IllegalArgumentException("tdigestCompression must not be negative");
+        }
+        this.tdigestCompression = tdigestCompression;
+        return this;
+    }
+
+    public double getTdigestCompression() {
+        return tdigestCompression;
+    }
+
+    /**
+     * 设置后百分位数改用HDR直方图计算，参数为有效数字位数（0-5），默认0表示使用TDigest
+     */
+    public ConverterConfig hdrSignificantDigits(int hdrSignificantDigits) {
+        if (hdrSignificantDigits < 0 || hdrSignificantDigits > 5) {
+            throw new IllegalArgumentException("hdrSignificantDigits must be between 0 and 5");
+        }
+        this.hdrSignificantDigits = hdrSignificantDigits;
+        return this;
+    }
+
+    public int getHdrSignificantDigits() {
+        return hdrSignificantDigits;
+    }
+
+    /**
+     * 设置search_after分页在SQL没有LIMIT时每页的条数，默认1000
+     */
+    public ConverterConfig searchAfterSize(int searchAfterSize) {
+        if (searchAfterSize <= 0) {
+            throw new IllegalArgumentException("searchAfterSize must be positive");
+        }
+        this.searchAfterSize = searchAfterSize;
+        return this;
+    }
+
+    public int getSearchAfterSize() {
+        return searchAfterSize;
+    }
+
+    /**
+     * 设置search_after分页追加在排序末尾的唯一字段，不设置时只能配合PIT使用_shard_doc
+     */
+    public ConverterConfig tiebreakerField(String tiebreakerField) {
+        this.tiebreakerField = tiebreakerField;
+        return this;
+    }
+
+    public String getTiebreakerField() {
+        return tiebreakerField;
+    }
+
+    /**
+     * 设置search_after分页每次请求延长PIT的时间，默认1m
+     */
+    public ConverterConfig pitKeepAlive(String pitKeepAlive) {
+        this.pitKeepAlive = pitKeepAlive;
+        return this;
+    }
+
+    public String getPitKeepAlive() {
+        return pitKeepAlive;
+    }
+
+    /**
+     * 设置SELECT字段列表的返回方式，默认通过_source.includes过滤，SELECT * 返回完整文档
+     */
+    public ConverterConfig projectionMode(ProjectionMode projectionMode) {
+        this.projectionMode = projectionMode;
+        return this;
+    }
+
+    public ProjectionMode getProjectionMode() {
+        return projectionMode;
+    }
+
+    /**
+     * 普通查询是否统计命中总数，默认不统计（track_total_hits为false），
+     * 开启时使用Elasticsearch的默认行为
+     */
+    public ConverterConfig trackTotalHits(boolean trackTotalHits) {
+        this.trackTotalHits = trackTotalHits;
+        return this;
+    }
+
+    public boolean isTrackTotalHits() {
+        return trackTotalHits;
+    }
+
+    /**
+     * 只统计命中数的查询（见 {@link ConversionResult#isCountOnly()}）是否生成_count请求体，
+     * 默认生成size为0的_search请求体
+     */
+    public ConverterConfig countEndpoint(boolean countEndpoint) {
+        this.countEndpoint = countEndpoint;
+        return this;
+    }
+
+    public boolean isCountEndpoint() {
+        return countEndpoint;
+    }
+
+    /**
+     * 设置一个terms查询最多包含的值个数，超过时拆分为多个terms查询用OR连接，
+     * 应与索引的index.max_terms_count一致，默认65536
+     */
+    public ConverterConfig maxTermsCount(int maxTermsCount) {
+        if (maxTermsCount <= 0) {
+            throw new IllegalArgumentException("maxTermsCount must be positive");
+        }
+        this.maxTermsCount = maxTermsCount;
+        return this;
+    }
+
+    public int getMaxTermsCount() {
+        return maxTermsCount;
+    }
+
+    /**
+     * 设置保存倒序字符串的子字段后缀（如 ".reversed"），设置后 LIKE '%abc' 转换为
+     * 该子字段上的prefix查询，不设置时转换为以通配符开头的wildcard查询
+     */
+    public ConverterConfig reverseFieldSuffix(String reverseFieldSuffix) {
+        this.reverseFieldSuffix = reverseFieldSuffix;
+        return this;
+    }
+
+    public String getReverseFieldSuffix() {
+        return reverseFieldSuffix;
+    }
+
+    /**
+     * 设置索引映射注册表，设置后按字段类型输出比较值，text字段的精确匹配和分桶使用keyword子字段
+     */
+    public ConverterConfig schemaRegistry(SchemaRegistry schemaRegistry) {
+        this.schemaRegistry = schemaRegistry;
+        return this;
+    }
+
+    public SchemaRegistry getSchemaRegistry() {
+        return schemaRegistry;
+    }
+
+    /**
+     * 设置按WHERE条件计算routing和时间分区索引的规则，默认不裁剪
+     */
+    public ConverterConfig indexRouting(IndexRouting indexRouting) {
+        this.indexRouting = indexRouting;
+        return this;
+    }
+
+    public IndexRouting getIndexRouting() {
+        return indexRouting;
+    }
+
+    /**
+     * 复制配置，缓存不复制
+     */
+    ConverterConfig copy() {
+        ConverterConfig copy = new ConverterConfig();
+        copy.format = format;
+        copy.parseMode = parseMode;
+        copy.maxSqlLength = maxSqlLength;
+        copy.maxNestingDepth = maxNestingDepth;
+        copy.queryContext = queryContext;
+        copy.optimizePredicates = optimizePredicates;
+        copy.backend = backend;
+        copy.groupByMode = groupByMode;
+        copy.compositeSize = compositeSize;
+        copy.shardSize = shardSize;
+        copy.maxBuckets = maxBuckets;
+        copy.timeZone = timeZone;
+        copy.precisionThreshold = precisionThreshold;
+        copy.tdigestCompression = tdigestCompression;
+        copy.hdrSignificantDigits = hdrSignificantDigits;
+        copy.searchAfterSize = searchAfterSize;
+        copy.tiebreakerField = tiebreakerField;
+        copy.pitKeepAlive = pitKeepAlive;
+        copy.projectionMode = projectionMode;
+        copy.trackTotalHits = trackTotalHits;
+        copy.countEndpoint = countEndpoint;
+        copy.maxTermsCount = maxTermsCount;
+        copy.reverseFieldSuffix = reverseFieldSuffix;
+        copy.schemaRegistry = schemaRegistry;
+        copy.indexRouting = indexRouting;
+        return copy;
+    }
+}
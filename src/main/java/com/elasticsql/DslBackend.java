@@ -0,0 +1,21 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+
+/**
+ * 把 {@link QueryModel} 写成请求体的输出后端
+ *
+ * 实现类不应持有可变状态，同一个实例会被多个线程同时使用。
+ */
+interface DslBackend {
+
+    /**
+     * 将查询写入JsonGenerator
+     * @param model 已完成条件改写的中间表示
+     * @param config 转换配置
+     * @param gen 输出目标
+     */
+    void write(QueryModel model, ConverterConfig config, JsonGenerator gen) throws IOException;
+}
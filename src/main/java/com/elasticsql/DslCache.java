@@ -0,0 +1,159 @@
+package com.elasticsql;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * SQL到DSL的转换缓存
+ *
+ * 以归一化后的SQL形状为键缓存 {@link PreparedQuery}，命中时只需把提取出的字面量
+ * 填回模板，不再解析SQL。按最近最少使用（LRU）淘汰，同时受条目数和估算字节数限制。
+ * 参数不能出现的位置（如SELECT列表中的字面量），以及条件改写依赖字面量值的情况
+ * （如同一字段上的多个范围条件）会导致该形状无法模板化，
+ * 这类形状也会被记录下来，之后直接走完整转换流程，不计为命中。
+ */
+public final class DslCache {
+    private static final int ENTRY_OVERHEAD = 64;
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long byteSize;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong bypassCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public DslCache(int maxEntries, long maxBytes) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("Cache limits must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * 通过缓存转换SQL，SQL无法模板化时返回null，由调用方走完整转换流程
+     */
+    String convert(String sql, ConverterConfig config) {
+        SqlNormalizer.Normalized normalized = SqlNormalizer.normalize(sql);
+        if (normalized == null) {
+            return null;
+        }
+
+        String shape = normalized.getShape();
+        Entry entry = get(shape);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            entry = load(shape, config);
+            put(shape, entry);
+        } else if (entry.template == null) {
+            // 已知无法模板化的形状，由调用方完整转换
+            bypassCount.incrementAndGet();
+            return null;
+        } else {
+            hitCount.incrementAndGet();
+        }
+
+        // 未命中时直接用刚编译的模板填入字面量，不再转换原SQL
+        return entry.template == null ? null : entry.template.bind(normalized.getLiterals());
+    }
+
+    /**
+     * 清空缓存，统计计数保留
+     */
+    public void clear() {
+        lock.lock();
+        try {
+            entries.clear();
+            byteSize = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 获取统计快照
+     */
+    public CacheStats stats() {
+        lock.lock();
+        try {
+            return new CacheStats(hitCount.get(), missCount.get(), bypassCount.get(), evictionCount.get(),
+                    entries.size(), byteSize);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private Entry get(String shape) {
+        lock.lock();
+        try {
+            return entries.get(shape);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void put(String shape, Entry entry) {
+        if (entry.bytes > maxBytes) {
+            return;
+        }
+        lock.lock();
+        try {
+            Entry previous = entries.put(shape, entry);
+            if (previous != null) {
+                byteSize -= previous.bytes;
+            }
+            byteSize += entry.bytes;
+
+            // 淘汰最久未使用的条目，直到满足条目数和字节数限制
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while ((entries.size() > maxEntries || byteSize > maxBytes) && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                byteSize -= eldest.getValue().bytes;
+                it.remove();
+                evictionCount.incrementAndGet();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static Entry load(String shape, ConverterConfig config) {
+        PreparedQuery template;
+        try {
+            ConversionResult result = ElasticSqlConverter.convertToResult(shape, config);
+            // 条件改写依赖字面量值的形状，换成其他字面量后DSL结构可能不同，不能模板化
+            template = result.isLiteralDependent()
+                    ? null : PreparedQuery.compile(shape, result.getIndex(), result.getDsl());
+        } catch (Exception e) {
+            // 无法模板化的形状，记录为空模板
+            template = null;
+        }
+        long bytes = ENTRY_OVERHEAD + 2L * shape.length() + (template == null ? 0 : template.estimatedBytes());
+        return new Entry(template, bytes);
+    }
+
+    private static final class Entry {
+        final PreparedQuery template;
+        final long bytes;
+
+        Entry(PreparedQuery template, long bytes) {
+            this.template = template;
+            this.bytes = bytes;
+        }
+    }
+}
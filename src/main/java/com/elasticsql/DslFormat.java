@@ -0,0 +1,67 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.util.DefaultIndenter;
+import com.fasterxml.jackson.core.util.DefaultPrettyPrinter;
+
+/**
+ * DSL输出格式，在生成DSL时直接作用于JsonGenerator，不需要额外的序列化
+ */
+public final class DslFormat {
+    /**
+     * 紧凑输出，没有任何空白
+     */
+    public static final DslFormat COMPACT = new DslFormat(null, null);
+
+    /**
+     * 与Jackson默认格式一致的缩进输出
+     */
+    public static final DslFormat PRETTY = new DslFormat(DefaultIndenter.SYSTEM_LINEFEED_INSTANCE, null);
+
+    private final DefaultIndenter objectIndenter;
+    private final DefaultIndenter arrayIndenter;
+
+    private DslFormat(DefaultIndenter objectIndenter, DefaultIndenter arrayIndenter) {
+        this.objectIndenter = objectIndenter;
+        this.arrayIndenter = arrayIndenter;
+    }
+
+    /**
+     * 自定义缩进，对象和数组都换行，每层缩进指定个数的空格
+     */
+    public static DslFormat indent(int spaces) {
+        StringBuilder indent = new StringBuilder(spaces);
+        for (int i = 0; i < spaces; i++) {
+            indent.append(' ');
+        }
+        return indent(indent.toString(), "\n");
+    }
+
+    /**
+     * 自定义缩进字符串和换行符，对象和数组都换行
+     */
+    public static DslFormat indent(String indent, String eol) {
+        DefaultIndenter indenter = new DefaultIndenter(indent, eol);
+        return new DslFormat(indenter, indenter);
+    }
+
+    public boolean isCompact() {
+        return objectIndenter == null;
+    }
+
+    /**
+     * 将输出格式应用到JsonGenerator
+     */
+    void apply(JsonGenerator gen) {
+        if (isCompact()) {
+            return;
+        }
+        // DefaultPrettyPrinter带有嵌套层级状态，每个JsonGenerator使用独立的实例
+        DefaultPrettyPrinter printer = new DefaultPrettyPrinter();
+        printer.indentObjectsWith(objectIndenter);
+        if (arrayIndenter != null) {
+            printer.indentArraysWith(arrayIndenter);
+        }
+        gen.setPrettyPrinter(printer);
+    }
+}
@@ -1,9 +1,11 @@
 package com.elasticsql;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import net.sf.jsqlparser.JSQLParserException;
-import net.sf.jsqlparser.parser.CCJSqlParserUtil;
 import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.Statements;
 import net.sf.jsqlparser.statement.delete.Delete;
 import net.sf.jsqlparser.statement.insert.Insert;
 import net.sf.jsqlparser.statement.select.FromItem;
@@ -11,30 +13,83 @@ import net.sf.jsqlparser.statement.select.PlainSelect;
 import net.sf.jsqlparser.statement.select.Select;
 import net.sf.jsqlparser.statement.update.Update;
 
-import java.util.HashMap;
-import java.util.Map;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
 
+/**
+ * SQL到Elasticsearch DSL的转换入口
+ *
+ * 所有方法都是线程安全的：ObjectMapper配置完成后只用于创建JsonGenerator，
+ * 每次转换使用独立的解析器和生成器，不共享可变状态。
+ */
 public class ElasticSqlConverter {
     private static final ObjectMapper objectMapper = new ObjectMapper();
+    private static final ConverterConfig DEFAULT_CONFIG = new ConverterConfig();
+    private static final ConverterConfig PRETTY_CONFIG = new ConverterConfig().format(DslFormat.PRETTY);
+
+    /**
+     * 开启convert的转换缓存，相同形状（只有字面量不同）的SQL共享一个预编译模板
+     * @param maxEntries 最多缓存的SQL形状个数
+     * @param maxBytes 缓存占用的最大估算字节数
+     * @return 新的缓存实例，可用于查看命中统计
+     */
+    public static DslCache enableCache(int maxEntries, long maxBytes) {
+        DslCache newCache = new DslCache(maxEntries, maxBytes);
+        DEFAULT_CONFIG.cache(newCache);
+        return newCache;
+    }
+
+    /**
+     * 关闭转换缓存
+     */
+    public static void disableCache() {
+        DEFAULT_CONFIG.cache(null);
+    }
+
+    /**
+     * 获取当前的转换缓存，未开启时返回null
+     */
+    public static DslCache getCache() {
+        return DEFAULT_CONFIG.getCache();
+    }
 
     /**
      * 将SQL转换为Elasticsearch DSL，并格式化输出
      */
     public static String convertPretty(String sql) throws Exception {
-        String dsl = convert(sql);
-        Map<String, Object> dslMap = objectMapper.readValue(dsl, HashMap.class);
-        return objectMapper.writerWithDefaultPrettyPrinter().writeValueAsString(dslMap);
+        return convert(sql, PRETTY_CONFIG);
     }
 
     /**
      * 将SQL转换为Elasticsearch DSL
      */
     public static String convert(String sql) throws Exception {
+        return convert(sql, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置将SQL转换为Elasticsearch DSL
+     */
+    public static String convert(String sql, ConverterConfig config) throws Exception {
+        DslCache dslCache = config.getCache();
+        if (dslCache != null) {
+            String dsl = dslCache.convert(sql, config);
+            if (dsl != null) {
+                return dsl;
+            }
+        }
+
         try {
-            Statement stmt = CCJSqlParserUtil.parse(sql);
+            Statement stmt = SqlParser.parse(sql, config);
 
             if (stmt instanceof Select) {
-                return SelectHandler.handleSelect((Select) stmt);
+                return SelectHandler.convertSelect((Select) stmt, config).getDsl();
             } else if (stmt instanceof Update) {
                 throw new UnsupportedOperationException("Update statements are not supported yet");
             } else if (stmt instanceof Insert) {
@@ -49,6 +104,265 @@ public class ElasticSqlConverter {
         }
     }
 
+    /**
+     * 将SQL转换为Elasticsearch DSL，同时返回目标索引和查询元数据，SQL只解析一次
+     * @param sql SQL查询语句
+     * @return 转换结果
+     * @throws Exception 解析异常
+     */
+    public static ConversionResult convertToResult(String sql) throws Exception {
+        return convertToResult(sql, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置转换SQL，同时返回目标索引和查询元数据
+     */
+    public static ConversionResult convertToResult(String sql, ConverterConfig config) throws Exception {
+        return SelectHandler.convertSelect(parseSelect(sql, config), config);
+    }
+
+    /**
+     * 将SQL转换的DSL直接流式写入Writer，不生成中间字符串
+     * @param sql SQL查询语句
+     * @param writer 输出目标，写入完成后不会关闭
+     * @return 转换元数据，其中DSL文本为null
+     * @throws Exception 解析异常
+     */
+    public static ConversionResult convertTo(String sql, Writer writer) throws Exception {
+        return convertTo(sql, writer, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置将DSL直接流式写入Writer
+     */
+    public static ConversionResult convertTo(String sql, Writer writer, ConverterConfig config) throws Exception {
+        Select select = parseSelect(sql, config);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(writer)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            config.getFormat().apply(gen);
+            return SelectHandler.writeSelect(select, gen, config);
+        }
+    }
+
+    /**
+     * 将SQL转换的DSL以UTF-8编码直接流式写入OutputStream，不生成中间字符串
+     * @param sql SQL查询语句
+     * @param out 输出目标，可以是复用的缓冲区，写入完成后不会关闭
+     * @return 转换元数据，其中DSL文本为null
+     * @throws Exception 解析异常
+     */
+    public static ConversionResult convertTo(String sql, OutputStream out) throws Exception {
+        return convertTo(sql, out, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置将DSL以UTF-8编码直接流式写入OutputStream
+     */
+    public static ConversionResult convertTo(String sql, OutputStream out, ConverterConfig config) throws Exception {
+        Select select = parseSelect(sql, config);
+        try (JsonGenerator gen = objectMapper.getFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            gen.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            config.getFormat().apply(gen);
+            return SelectHandler.writeSelect(select, gen, config);
+        }
+    }
+
+    /**
+     * 将SQL转换的DSL写入调用方提供的JsonGenerator，可嵌入更大的请求体中，
+     * 输出格式由调用方的JsonGenerator决定
+     * @param sql SQL查询语句
+     * @param gen 输出目标，写入完成后不会关闭
+     * @return 转换元数据，其中DSL文本为null
+     * @throws Exception 解析异常
+     */
+    public static ConversionResult convertTo(String sql, JsonGenerator gen) throws Exception {
+        return convertTo(sql, gen, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置将DSL写入调用方提供的JsonGenerator，输出格式由调用方的JsonGenerator决定
+     */
+    public static ConversionResult convertTo(String sql, JsonGenerator gen, ConverterConfig config) throws Exception {
+        return SelectHandler.writeSelect(parseSelect(sql, config), gen, config);
+    }
+
+    /**
+     * 使用ForkJoinPool公共线程池并行转换一批SQL
+     * @param sqls SQL列表
+     * @return 与输入顺序一致的结果列表，每条SQL单独报告成功或失败
+     */
+    public static List<BatchResult> convertAll(Collection<String> sqls) {
+        return BatchConverter.convertAll(sqls, DEFAULT_CONFIG, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * 使用指定的执行器并行转换一批SQL
+     * @param sqls SQL列表
+     * @param config 转换配置
+     * @param executor 执行器，例如 {@link BatchConverter#newVirtualThreadExecutor()}
+     * @return 与输入顺序一致的结果列表
+     */
+    public static List<BatchResult> convertAll(Collection<String> sqls, ConverterConfig config, Executor executor) {
+        return BatchConverter.convertAll(sqls, config, executor);
+    }
+
+    /**
+     * 流式并行转换，使用ForkJoinPool公共线程池，结果按输入顺序回调
+     * @param sqls SQL序列，可以是惰性生成的
+     * @param consumer 结果回调，在调用线程上执行
+     */
+    public static void convertEach(Iterable<String> sqls, Consumer<BatchResult> consumer) {
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        BatchConverter.convertEach(sqls, DEFAULT_CONFIG, pool, pool.getParallelism() * 2, consumer);
+    }
+
+    /**
+     * 把一批SQL合并为一次 _msearch 请求，目标索引和DSL都相同的SQL只发送一次
+     * @param sqls SQL列表
+     * @return 可写出NDJSON请求体并按SQL读取响应的请求
+     * @throws Exception 任意一条SQL解析或转换失败时
+     */
+    public static MultiSearchRequest multiSearch(Collection<String> sqls) throws Exception {
+        return multiSearch(sqls, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置把一批SQL合并为一次 _msearch 请求
+     * NDJSON中每个DSL必须在一行内，配置中的格式和_count设置不生效
+     */
+    public static MultiSearchRequest multiSearch(Collection<String> sqls, ConverterConfig config) throws Exception {
+        ConverterConfig searchConfig = multiSearchConfig(config);
+        List<ConversionResult> results = new ArrayList<>(sqls.size());
+        for (String sql : sqls) {
+            results.add(SelectHandler.convertSelect(parseSelect(sql, searchConfig), searchConfig));
+        }
+        return new MultiSearchRequest(results);
+    }
+
+    /**
+     * 把以分号分隔的多条SQL合并为一次 _msearch 请求
+     */
+    public static MultiSearchRequest multiSearchScript(String script) throws Exception {
+        return multiSearchScript(script, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置把以分号分隔的多条SQL合并为一次 _msearch 请求
+     */
+    public static MultiSearchRequest multiSearchScript(String script, ConverterConfig config) throws Exception {
+        ConverterConfig searchConfig = multiSearchConfig(config);
+        Statements statements;
+        try {
+            statements = SqlParser.parseStatements(script, searchConfig);
+        } catch (JSQLParserException e) {
+            throw new Exception("Failed to parse SQL: " + e.getMessage(), e);
+        }
+
+        List<ConversionResult> results = new ArrayList<>(statements.size());
+        for (Statement stmt : statements) {
+            if (!(stmt instanceof Select)) {
+                throw new UnsupportedOperationException("Only SELECT statements are supported");
+            }
+            results.add(SelectHandler.convertSelect((Select) stmt, searchConfig));
+        }
+        return new MultiSearchRequest(results);
+    }
+
+    /**
+     * _msearch 只能执行搜索，DSL使用紧凑格式
+     */
+    private static ConverterConfig multiSearchConfig(ConverterConfig config) {
+        if (config.getFormat().isCompact() && !config.isCountEndpoint()) {
+            return config;
+        }
+        return config.copy().format(DslFormat.COMPACT).countEndpoint(false);
+    }
+
+    /**
+     * 预编译带占位符（? 或 :name）的SQL，返回可重复绑定参数的模板
+     * 参数可以出现在比较条件的右侧以及LIMIT/OFFSET中
+     * @param sql SQL查询语句
+     * @return 线程安全的预编译模板
+     * @throws Exception 解析异常
+     */
+    public static PreparedQuery prepare(String sql) throws Exception {
+        return prepare(sql, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置预编译带占位符的SQL
+     */
+    public static PreparedQuery prepare(String sql, ConverterConfig config) throws Exception {
+        ConversionResult result = SelectHandler.convertSelect(parseSelect(sql, config), config);
+        return PreparedQuery.compile(sql, result.getIndex(), result.getDsl());
+    }
+
+    /**
+     * 创建GROUP BY查询的composite聚合分页游标，通过after_key逐页读取全部桶
+     * @param sql 带GROUP BY的SQL查询语句
+     * @return 线程安全的分页游标
+     * @throws Exception 解析异常
+     */
+    public static CompositeCursor compositeCursor(String sql) throws Exception {
+        return compositeCursor(sql, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置创建composite聚合分页游标，配置中的GROUP BY转换方式固定为COMPOSITE
+     */
+    public static CompositeCursor compositeCursor(String sql, ConverterConfig config) throws Exception {
+        QueryModel model = SelectHandler.buildModel(parseSelect(sql, config), config);
+        if (model.getGroupBy().isEmpty()) {
+            throw new UnsupportedOperationException("Composite paging requires a GROUP BY clause");
+        }
+        if (config.getGroupByMode() != GroupByMode.COMPOSITE) {
+            config = config.copy().groupByMode(GroupByMode.COMPOSITE);
+        }
+        return new CompositeCursor(model, config);
+    }
+
+    /**
+     * 创建search_after分页游标，按配置的tiebreakerField保证排序唯一
+     */
+    public static SearchAfterCursor searchAfterCursor(String sql, ConverterConfig config) throws Exception {
+        return searchAfterCursor(sql, null, config);
+    }
+
+    /**
+     * 创建使用PIT的search_after分页游标，默认以_shard_doc保证排序唯一
+     */
+    public static SearchAfterCursor searchAfterCursor(String sql, String pitId) throws Exception {
+        return searchAfterCursor(sql, pitId, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 创建search_after分页游标
+     * @param sql 不带OFFSET的普通查询，LIMIT为每页条数，没有LIMIT时使用配置的searchAfterSize
+     * @param pitId PIT的id，为null时不使用PIT
+     * @param config 转换配置
+     */
+    public static SearchAfterCursor searchAfterCursor(String sql, String pitId, ConverterConfig config)
+            throws Exception {
+        Select select = parseSelect(sql, config);
+        QueryModel model = SelectHandler.buildModel(select, config);
+        if (model.isAggregation()) {
+            throw new UnsupportedOperationException("search_after paging does not support aggregation queries");
+        }
+
+        // buildModel已检查为PlainSelect
+        PlainSelect plainSelect = (PlainSelect) select;
+        if (plainSelect.getOffset() != null
+                || plainSelect.getLimit() != null && plainSelect.getLimit().getOffset() != null) {
+            throw new UnsupportedOperationException("OFFSET is not supported with search_after paging");
+        }
+        if (model.getSize().isParameter()) {
+            throw new UnsupportedOperationException("Parameters are not supported in search_after paging");
+        }
+        Predicate.Value size = plainSelect.getLimit() != null ? model.getSize()
+                : Predicate.Value.number(String.valueOf(config.getSearchAfterSize()));
+        return new SearchAfterCursor(model, config, size, pitId);
+    }
+
     /**
      * 从SQL字符串中直接获取表名
      * @param sql SQL查询语句
@@ -56,16 +370,20 @@ public class ElasticSqlConverter {
      * @throws Exception 解析异常
      */
     public static String getTableName(String sql) throws Exception {
+        return getTableName(sql, DEFAULT_CONFIG);
+    }
+
+    /**
+     * 按指定配置的解析方式获取表名
+     */
+    public static String getTableName(String sql, ConverterConfig config) throws Exception {
         try {
             // 解析SQL语句
-            Statement stmt = CCJSqlParserUtil.parse(sql);
+            Statement stmt = SqlParser.parse(sql, config);
 
             if (stmt instanceof Select) {
-                Select select = (Select) stmt;
-                Select selectBody = select.getSelectBody();
-
-                if (selectBody instanceof PlainSelect) {
-                    PlainSelect plainSelect = (PlainSelect) selectBody;
+                if (stmt instanceof PlainSelect) {
+                    PlainSelect plainSelect = (PlainSelect) stmt;
                     FromItem fromItem = plainSelect.getFromItem();
                     return SelectHandler.getTableName(fromItem);
                 } else {
@@ -88,4 +406,20 @@ public class ElasticSqlConverter {
         }
     }
 
+    /**
+     * 解析SQL，只接受SELECT语句
+     */
+    private static Select parseSelect(String sql, ConverterConfig config) throws Exception {
+        try {
+            Statement stmt = SqlParser.parse(sql, config);
+
+            if (stmt instanceof Select) {
+                return (Select) stmt;
+            } else {
+                throw new UnsupportedOperationException("Only SELECT statements are supported");
+            }
+        } catch (JSQLParserException e) {
+            throw new Exception("Failed to parse SQL: " + e.getMessage(), e);
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,600 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 输出Elasticsearch _search 请求体
+ */
+final class ElasticsearchBackend implements DslBackend {
+    static final ElasticsearchBackend INSTANCE = new ElasticsearchBackend();
+
+    private ElasticsearchBackend() {
+    }
+
+    @Override
+    public void write(QueryModel model, ConverterConfig config, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+
+        // 处理WHERE条件
+        gen.writeFieldName("query");
+        writeQuery(model.getWhere(), config, gen);
+
+        if (model.isCountOnly()) {
+            // 只统计命中数，不读取文档也不计算聚合
+            if (!config.isCountEndpoint()) {
+                writeHints(model.getHints(), gen);
+                gen.writeNumberField("size", 0);
+                gen.writeBooleanField("track_total_hits", true);
+            }
+            gen.writeEndObject();
+            return;
+        }
+        writeHints(model.getHints(), gen);
+
+        QueryModel.SearchAfter searchAfter = model.getSearchAfter();
+        if (searchAfter == null) {
+            writeIntegerField(gen, "from", model.getFrom());
+        }
+        writeIntegerField(gen, "size", model.getSize());
+        if (!model.isAggregation()) {
+            if (model.getProjection() != null) {
+                writeProjection(model.getProjection(), config.getProjectionMode(), gen);
+            }
+            // 读取文档时不统计命中总数，逐页导出时也不需要
+            if (searchAfter != null || !config.isTrackTotalHits()) {
+                gen.writeBooleanField("track_total_hits", false);
+            }
+        }
+
+        if (model.isAggregation()) {
+            AggregationPlan plan = AggregationCompiler.compile(model, config);
+            if (plan.isTrackTotalHits()) {
+                // 没有GROUP BY的COUNT(*)读取命中总数
+                gen.writeBooleanField("track_total_hits", true);
+            }
+            if (!plan.getGroupBy().isEmpty() && config.getGroupByMode() == GroupByMode.COMPOSITE) {
+                gen.writeFieldName("aggregations");
+                writeCompositeAggs(plan, config, model.getAfterKey(), gen);
+            } else if (!plan.getGroupBy().isEmpty() || !plan.getAggs().isEmpty()) {
+                gen.writeFieldName("aggregations");
+                writeAggs(plan, config, gen);
+            }
+        }
+
+        // 处理ORDER BY子句
+        if (!model.isAggregation() && !model.getSort().isEmpty()) {
+            gen.writeArrayFieldStart("sort");
+            for (QueryModel.Sort sort : model.getSort()) {
+                gen.writeStartObject();
+                gen.writeStringField(sort.field, sort.asc ? "asc" : "desc");
+                gen.writeEndObject();
+            }
+            gen.writeEndArray();
+        }
+
+        if (searchAfter != null) {
+            writeSearchAfter(searchAfter, gen);
+        }
+
+        gen.writeEndObject();
+    }
+
+    /**
+     * 写入提示注释中属于请求体的执行选项
+     */
+    private static void writeHints(QueryHints hints, JsonGenerator gen) throws IOException {
+        if (hints.timeout != null) {
+            gen.writeStringField("timeout", hints.timeout);
+        }
+        if (hints.terminateAfter != null) {
+            gen.writeNumberField("terminate_after", hints.terminateAfter);
+        }
+        if (hints.profile) {
+            gen.writeBooleanField("profile", true);
+        }
+    }
+
+    /**
+     * 只返回SELECT列表中的字段
+     */
+    private static void writeProjection(List<String> fields, ProjectionMode mode, JsonGenerator gen)
+            throws IOException {
+        if (mode == ProjectionMode.SOURCE) {
+            gen.writeObjectFieldStart("_source");
+            gen.writeArrayFieldStart("includes");
+            for (String field : fields) {
+                gen.writeString(field);
+            }
+            gen.writeEndArray();
+            gen.writeEndObject();
+            return;
+        }
+
+        gen.writeBooleanField("_source", false);
+        gen.writeArrayFieldStart(mode == ProjectionMode.DOCVALUE_FIELDS ? "docvalue_fields" : "fields");
+        for (String field : fields) {
+            gen.writeString(field);
+        }
+        gen.writeEndArray();
+    }
+
+    /**
+     * 写入search_after和pit，使用PIT时请求不指定索引
+     */
+    private static void writeSearchAfter(QueryModel.SearchAfter searchAfter, JsonGenerator gen) throws IOException {
+        if (searchAfter.values != null) {
+            gen.writeArrayFieldStart("search_after");
+            for (Object value : searchAfter.values) {
+                writeScalar(value, gen);
+            }
+            gen.writeEndArray();
+        }
+        if (searchAfter.pitId != null) {
+            gen.writeObjectFieldStart("pit");
+            gen.writeStringField("id", searchAfter.pitId);
+            gen.writeStringField("keep_alive", searchAfter.keepAlive);
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * 写入from/size，参数占位符以槽位标记写入
+     */
+    private static void writeIntegerField(JsonGenerator gen, String name, Predicate.Value value) throws IOException {
+        if (value.isParameter()) {
+            gen.writeStringField(name, value.getText());
+        } else {
+            gen.writeNumberField(name, value.getNumber().intValue());
+        }
+    }
+
+    /**
+     * 写入查询条件
+     */
+    private static void writeQuery(Predicate where, ConverterConfig config, JsonGenerator gen) throws IOException {
+        if (where == null) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("bool");
+            gen.writeArrayFieldStart("must");
+            writeMatchAll(gen);
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndObject();
+            return;
+        }
+
+        if (config.getQueryContext() == QueryContext.FILTER
+                && !(where instanceof Predicate.And) && !(where instanceof Predicate.Not)) {
+            // 单个条件和OR条件包装在constant_score中，以过滤上下文执行
+            gen.writeStartObject();
+            gen.writeFieldName("constant_score");
+            gen.writeStartObject();
+            gen.writeFieldName("filter");
+            writePredicate(where, config, gen);
+            gen.writeEndObject();
+            gen.writeEndObject();
+            return;
+        }
+
+        // 处理条件，写入完整的查询对象
+        writePredicate(where, config, gen);
+    }
+
+    /**
+     * 递归写入条件树
+     */
+    private static void writePredicate(Predicate predicate, ConverterConfig config, JsonGenerator gen)
+            throws IOException {
+        if (predicate instanceof Predicate.And) {
+            // AND合并到同一个bool查询中，否定条件放入must_not
+            List<Predicate> positives = new ArrayList<>();
+            List<Predicate> negatives = new ArrayList<>();
+            for (Predicate operand : ((Predicate.And) predicate).operands) {
+                if (operand instanceof Predicate.Not) {
+                    negatives.add(((Predicate.Not) operand).operand);
+                } else {
+                    positives.add(operand);
+                }
+            }
+
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("bool");
+            if (!positives.isEmpty()) {
+                gen.writeArrayFieldStart(config.getQueryContext() == QueryContext.FILTER ? "filter" : "must");
+                for (Predicate operand : positives) {
+                    writePredicate(operand, config, gen);
+                }
+                gen.writeEndArray();
+            }
+            if (!negatives.isEmpty()) {
+                gen.writeArrayFieldStart("must_not");
+                for (Predicate operand : negatives) {
+                    writePredicate(operand, config, gen);
+                }
+                gen.writeEndArray();
+            }
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else if (predicate instanceof Predicate.Or) {
+            // 创建新的bool查询，使用should子句
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("bool");
+            gen.writeArrayFieldStart("should");
+            for (Predicate operand : ((Predicate.Or) predicate).operands) {
+                writePredicate(operand, config, gen);
+            }
+            gen.writeEndArray();
+
+            // 默认要求至少一个should条件满足
+            gen.writeNumberField("minimum_should_match", 1);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else if (predicate instanceof Predicate.Not) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("bool");
+            gen.writeArrayFieldStart("must_not");
+            writePredicate(((Predicate.Not) predicate).operand, config, gen);
+            gen.writeEndArray();
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else if (predicate instanceof Predicate.Term) {
+            Predicate.Term term = (Predicate.Term) predicate;
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("term");
+            gen.writeFieldName(term.field);
+            writeValue(term.value, gen);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else if (predicate instanceof Predicate.Terms) {
+            Predicate.Terms terms = (Predicate.Terms) predicate;
+            int chunkSize = config.getMaxTermsCount();
+            if (terms.values.size() <= chunkSize) {
+                writeTerms(terms.field, terms.values, gen);
+            } else {
+                // 超过index.max_terms_count时拆分为多个terms查询，用should连接
+                gen.writeStartObject();
+                gen.writeObjectFieldStart("bool");
+                gen.writeArrayFieldStart("should");
+                for (int from = 0; from < terms.values.size(); from += chunkSize) {
+                    writeTerms(terms.field,
+                            terms.values.subList(from, Math.min(from + chunkSize, terms.values.size())), gen);
+                }
+                gen.writeEndArray();
+                gen.writeNumberField("minimum_should_match", 1);
+                gen.writeEndObject();
+                gen.writeEndObject();
+            }
+        } else if (predicate instanceof Predicate.TermsLookup) {
+            Predicate.TermsLookup lookup = (Predicate.TermsLookup) predicate;
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("terms");
+            gen.writeObjectFieldStart(lookup.field);
+            gen.writeStringField("index", lookup.index);
+            gen.writeStringField("id", lookup.id.getText());
+            gen.writeStringField("path", lookup.path);
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else if (predicate instanceof Predicate.Range) {
+            Predicate.Range range = (Predicate.Range) predicate;
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("range");
+            gen.writeObjectFieldStart(range.field);
+            if (range.lower != null) {
+                gen.writeFieldName(range.includeLower ? "gte" : "gt");
+                writeValue(range.lower, gen);
+            }
+            if (range.upper != null) {
+                gen.writeFieldName(range.includeUpper ? "lte" : "lt");
+                writeValue(range.upper, gen);
+            }
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else if (predicate instanceof Predicate.Prefix) {
+            Predicate.Prefix prefix = (Predicate.Prefix) predicate;
+            writePattern("prefix", prefix.field, prefix.value, prefix.caseInsensitive, gen);
+        } else if (predicate instanceof Predicate.Wildcard) {
+            Predicate.Wildcard wildcard = (Predicate.Wildcard) predicate;
+            writePattern("wildcard", wildcard.field, wildcard.pattern, wildcard.caseInsensitive, gen);
+        } else if (predicate instanceof Predicate.Exists) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("exists");
+            gen.writeStringField("field", ((Predicate.Exists) predicate).field);
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else if (predicate == Predicate.MATCH_NONE) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart("match_none");
+            gen.writeEndObject();
+            gen.writeEndObject();
+        } else {
+            writeMatchAll(gen);
+        }
+    }
+
+    private static void writeTerms(String field, List<Predicate.Value> values, JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart("terms");
+        gen.writeArrayFieldStart(field);
+        for (Predicate.Value value : values) {
+            writeValue(value, gen);
+        }
+        gen.writeEndArray();
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    /**
+     * 按比较值的JSON类型写入，参数占位标记写为字符串，由预编译模板按槽位类型填充
+     */
+    private static void writeValue(Predicate.Value value, JsonGenerator gen) throws IOException {
+        if (value.isParameter() || value.getKind() == Predicate.Kind.STRING) {
+            gen.writeString(value.getText());
+        } else if (value.getKind() == Predicate.Kind.NUMBER) {
+            gen.writeNumber(value.getNumber() != null ? value.getNumber() : new BigDecimal(value.getText()));
+        } else {
+            gen.writeBoolean(Boolean.parseBoolean(value.getText()));
+        }
+    }
+
+    /**
+     * 写入prefix/wildcard查询，不区分大小写时使用完整形式
+     */
+    private static void writePattern(String type, String field, String value, boolean caseInsensitive,
+                                     JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart(type);
+        if (caseInsensitive) {
+            gen.writeObjectFieldStart(field);
+            gen.writeStringField("value", value);
+            gen.writeBooleanField("case_insensitive", true);
+            gen.writeEndObject();
+        } else {
+            gen.writeStringField(field, value);
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    private static void writeMatchAll(JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart("match_all");
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    /**
+     * 写入聚合查询，GROUP BY字段构建嵌套的terms或（date_）histogram聚合，指标聚合和HAVING添加到最内层
+     */
+    private static void writeAggs(AggregationPlan plan, ConverterConfig config, JsonGenerator gen)
+            throws IOException {
+        gen.writeStartObject();
+        List<QueryModel.Bucket> groupBy = plan.getGroupBy();
+        int last = groupBy.size() - 1;
+        for (int i = 0; i < groupBy.size(); i++) {
+            QueryModel.Bucket bucket = groupBy.get(i);
+            gen.writeObjectFieldStart("group_by_" + bucket.name);
+            gen.writeObjectFieldStart(bucket.type);
+            writeBucketSource(bucket, config, gen);
+            if (!bucket.isTerms()) {
+                // 与GROUP BY一致，不返回没有文档的空桶
+                gen.writeNumberField("min_doc_count", 1);
+            } else {
+                if (plan.getTermsSize() != null) {
+                    writeIntegerField(gen, "size", plan.getTermsSize());
+                }
+                if (config.getShardSize() > 0) {
+                    gen.writeNumberField("shard_size", config.getShardSize());
+                }
+            }
+            if (i == last && !plan.getOrder().isEmpty()) {
+                writeOrder(plan.getOrder(), gen);
+            }
+            gen.writeEndObject();
+            // 只需要doc_count的桶不写子聚合
+            if (i < last || plan.hasSubAggregations()) {
+                gen.writeObjectFieldStart("aggs");
+            }
+        }
+        writeMetricAggs(plan, config, gen);
+        if (!groupBy.isEmpty()) {
+            writePipelineAggs(plan, gen);
+        }
+        for (int i = last; i >= 0; i--) {
+            if (i < last || plan.hasSubAggregations()) {
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+    }
+
+    /**
+     * 写入分桶的字段和间隔，terms聚合和composite的source共用
+     */
+    private static void writeBucketSource(QueryModel.Bucket bucket, ConverterConfig config, JsonGenerator gen)
+            throws IOException {
+        gen.writeStringField("field", bucket.field);
+        if (bucket.type.equals(QueryModel.Bucket.HISTOGRAM)) {
+            gen.writeFieldName("interval");
+            gen.writeNumber(new BigDecimal(bucket.interval));
+        } else if (bucket.type.equals(QueryModel.Bucket.DATE_HISTOGRAM)) {
+            gen.writeStringField(bucket.calendar ? "calendar_interval" : "fixed_interval", bucket.interval);
+            if (bucket.format != null) {
+                gen.writeStringField("format", bucket.format);
+            }
+            String timeZone = bucket.timeZone != null ? bucket.timeZone : config.getTimeZone();
+            if (timeZone != null) {
+                gen.writeStringField("time_zone", timeZone);
+            }
+        }
+    }
+
+    /**
+     * 写入terms聚合的order，多个排序时使用数组
+     */
+    private static void writeOrder(List<QueryModel.Sort> order, JsonGenerator gen) throws IOException {
+        if (order.size() > 1) {
+            gen.writeArrayFieldStart("order");
+        } else {
+            gen.writeFieldName("order");
+        }
+        for (QueryModel.Sort sort : order) {
+            gen.writeStartObject();
+            gen.writeStringField(sort.field, sort.asc ? "asc" : "desc");
+            gen.writeEndObject();
+        }
+        if (order.size() > 1) {
+            gen.writeEndArray();
+        }
+    }
+
+    /**
+     * 写入最内层桶上的管道聚合：HAVING对应的bucket_selector，以及按LIMIT/OFFSET截取的bucket_sort
+     */
+    private static void writePipelineAggs(AggregationPlan plan, JsonGenerator gen) throws IOException {
+        QueryModel.Having having = plan.getHaving();
+        if (having != null) {
+            gen.writeObjectFieldStart("having");
+            gen.writeObjectFieldStart("bucket_selector");
+            gen.writeObjectFieldStart("buckets_path");
+            for (Map.Entry<String, String> entry : having.bucketsPath.entrySet()) {
+                gen.writeStringField(entry.getKey(), entry.getValue());
+            }
+            gen.writeEndObject();
+            gen.writeObjectFieldStart("script");
+            gen.writeStringField("source", having.script);
+            if (!having.params.isEmpty()) {
+                gen.writeObjectFieldStart("params");
+                for (Map.Entry<String, Predicate.Value> entry : having.params.entrySet()) {
+                    gen.writeFieldName(entry.getKey());
+                    writeValue(entry.getValue(), gen);
+                }
+                gen.writeEndObject();
+            }
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+        if (plan.getBucketSortFrom() != null || plan.getBucketSortSize() != null) {
+            gen.writeObjectFieldStart("limit");
+            gen.writeObjectFieldStart("bucket_sort");
+            if (plan.getBucketSortFrom() != null) {
+                writeIntegerField(gen, "from", plan.getBucketSortFrom());
+            }
+            if (plan.getBucketSortSize() != null) {
+                writeIntegerField(gen, "size", plan.getBucketSortSize());
+            }
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * 写入composite聚合，每个GROUP BY字段一个source，指标聚合和HAVING作为子聚合
+     */
+    private static void writeCompositeAggs(AggregationPlan plan, ConverterConfig config, Map<String, Object> afterKey,
+                                           JsonGenerator gen) throws IOException {
+        gen.writeStartObject();
+        gen.writeObjectFieldStart(CompositeCursor.AGGREGATION_NAME);
+        gen.writeObjectFieldStart("composite");
+        gen.writeNumberField("size", config.getCompositeSize());
+        gen.writeArrayFieldStart("sources");
+        for (QueryModel.Bucket bucket : plan.getGroupBy()) {
+            gen.writeStartObject();
+            gen.writeObjectFieldStart(bucket.name);
+            gen.writeObjectFieldStart(bucket.type);
+            writeBucketSource(bucket, config, gen);
+            gen.writeEndObject();
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+        gen.writeEndArray();
+        if (afterKey != null) {
+            gen.writeObjectFieldStart("after");
+            for (Map.Entry<String, Object> entry : afterKey.entrySet()) {
+                gen.writeFieldName(entry.getKey());
+                writeScalar(entry.getValue(), gen);
+            }
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+        if (plan.hasSubAggregations()) {
+            gen.writeObjectFieldStart("aggs");
+            writeMetricAggs(plan, config, gen);
+            writePipelineAggs(plan, gen);
+            gen.writeEndObject();
+        }
+        gen.writeEndObject();
+        gen.writeEndObject();
+    }
+
+    /**
+     * 写入指标聚合
+     */
+    private static void writeMetricAggs(AggregationPlan plan, ConverterConfig config, JsonGenerator gen)
+            throws IOException {
+        for (AggregationPlan.MetricAgg agg : plan.getAggs()) {
+            gen.writeObjectFieldStart(agg.name);
+            gen.writeObjectFieldStart(agg.type);
+            gen.writeStringField("field", agg.field);
+            if (agg.type.equals("cardinality") && config.getPrecisionThreshold() > 0) {
+                gen.writeNumberField("precision_threshold", config.getPrecisionThreshold());
+            } else if (agg.type.equals("percentiles")) {
+                writePercentiles(agg, config, gen);
+            }
+            gen.writeEndObject();
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * 写入百分位数和近似算法的参数
+     */
+    private static void writePercentiles(AggregationPlan.MetricAgg agg, ConverterConfig config, JsonGenerator gen)
+            throws IOException {
+        gen.writeArrayFieldStart("percents");
+        for (String percent : agg.percents) {
+            gen.writeNumber(Double.parseDouble(percent));
+        }
+        gen.writeEndArray();
+        if (config.getHdrSignificantDigits() > 0) {
+            gen.writeObjectFieldStart("hdr");
+            gen.writeNumberField("number_of_significant_value_digits", config.getHdrSignificantDigits());
+            gen.writeEndObject();
+        } else if (config.getTdigestCompression() > 0) {
+            gen.writeObjectFieldStart("tdigest");
+            gen.writeNumberField("compression", config.getTdigestCompression());
+            gen.writeEndObject();
+        }
+    }
+
+    /**
+     * 写入响应中读取的标量值（字符串、数字、布尔或null）
+     */
+    private static void writeScalar(Object value, JsonGenerator gen) throws IOException {
+        if (value == null) {
+            gen.writeNull();
+        } else if (value instanceof Boolean) {
+            gen.writeBoolean((Boolean) value);
+        } else if (value instanceof Integer || value instanceof Long) {
+            gen.writeNumber(((Number) value).longValue());
+        } else if (value instanceof BigInteger) {
+            gen.writeNumber((BigInteger) value);
+        } else if (value instanceof BigDecimal) {
+            gen.writeNumber((BigDecimal) value);
+        } else if (value instanceof Number) {
+            gen.writeNumber(((Number) value).doubleValue());
+        } else {
+            gen.writeString(value.toString());
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package com.elasticsql;
+
+/**
+ * GROUP BY的转换方式
+ */
+public enum GroupByMode {
+    /**
+     * 每个GROUP BY字段一层嵌套的terms聚合
+     */
+    TERMS,
+
+    /**
+     * 一个composite聚合，每个GROUP BY字段一个source，通过after_key分页读取全部桶，
+     * 见 {@link CompositeCursor}
+     */
+    COMPOSITE
+}
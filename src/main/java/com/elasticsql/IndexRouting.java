@@ -0,0 +1,267 @@
+package com.elasticsql;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 按WHERE条件缩小搜索范围的规则
+ *
+ * 每个索引（FROM中的表名）可以配置路由字段和按时间分区的索引命名规则：
+ * 顶层AND中路由字段的等值或IN条件转换为routing，时间字段的范围条件转换为与范围重叠的具体分区索引，
+ * 请求只发送到这些分片和索引。OR、NOT中的条件、参数占位符以及没有上下界的范围不参与裁剪，
+ * 此时使用原来的表名。分区索引可能不存在，发送请求时应带上 ignore_unavailable=true。
+ *
+ * <pre>
+ * IndexRouting routing = new IndexRouting()
+ *         .routingField("logs", "tenant_id")
+ *         .timePartitions("logs", "ts", "'logs-'yyyy.MM.dd", ChronoUnit.DAYS);
+ * </pre>
+ *
+ * 规则注册后不应再修改，实例可以在多个线程间共享。
+ */
+public final class IndexRouting {
+    /**
+     * 最多展开的分区数，超过时不裁剪，避免请求路径过长
+     */
+    private static final int DEFAULT_MAX_PARTITIONS = 64;
+
+    private final Map<String, String> routingFields = new ConcurrentHashMap<>();
+    private final Map<String, TimePartitions> timePartitions = new ConcurrentHashMap<>();
+    private int maxPartitions = DEFAULT_MAX_PARTITIONS;
+
+    /**
+     * 设置索引的路由字段，文档写入时使用该字段的值作为routing
+     */
+    public IndexRouting routingField(String index, String field) {
+        routingFields.put(index, field);
+        return this;
+    }
+
+    /**
+     * 设置按时间分区的索引命名规则，分区按UTC时间命名
+     * @param field 时间字段
+     * @param indexPattern 分区索引名的DateTimeFormatter模式，例如 {@code 'logs-'yyyy.MM.dd}
+     * @param unit 分区的时间跨度，例如 {@link ChronoUnit#DAYS}
+     */
+    public IndexRouting timePartitions(String index, String field, String indexPattern, ChronoUnit unit) {
+        return timePartitions(index, field, indexPattern, unit, ZoneOffset.UTC);
+    }
+
+    /**
+     * 设置按时间分区的索引命名规则，分区按指定时区的时间命名，不带时区的比较值也按该时区解释
+     */
+    public IndexRouting timePartitions(String index, String field, String indexPattern, ChronoUnit unit,
+                                       ZoneId zone) {
+        switch (unit) {
+            case HOURS:
+            case DAYS:
+            case WEEKS:
+            case MONTHS:
+            case YEARS:
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported partition unit: " + unit);
+        }
+        timePartitions.put(index, new TimePartitions(field, DateTimeFormatter.ofPattern(indexPattern), unit, zone));
+        return this;
+    }
+
+    /**
+     * 设置最多展开的分区数，范围覆盖更多分区时搜索原来的表名，默认64
+     */
+    public IndexRouting maxPartitions(int maxPartitions) {
+        if (maxPartitions <= 0) {
+            throw new IllegalArgumentException("maxPartitions must be positive");
+        }
+        this.maxPartitions = maxPartitions;
+        return this;
+    }
+
+    /**
+     * 按查询条件计算搜索目标
+     * @param schema 索引映射，为null时条件中的字段只能是路由字段和时间字段本身
+     */
+    Target resolve(QueryModel model, SchemaRegistry.IndexSchema schema) {
+        String index = model.getIndex();
+        String routingField = routingFields.get(index);
+        TimePartitions partitions = timePartitions.get(index);
+        if (model.getWhere() == null || (routingField == null && partitions == null)) {
+            return new Target(Collections.singletonList(index), null);
+        }
+
+        List<Predicate> conjuncts = model.getWhere() instanceof Predicate.And
+                ? ((Predicate.And) model.getWhere()).operands : Collections.singletonList(model.getWhere());
+        String routing = null;
+        for (Predicate predicate : conjuncts) {
+            if (routingField != null && routing == null) {
+                routing = routing(predicate, routingField, schema);
+            }
+        }
+        List<String> indices = partitions == null ? null : partitions.indices(conjuncts, maxPartitions, schema);
+        return new Target(indices != null ? indices : Collections.singletonList(index), routing);
+    }
+
+    /**
+     * 路由字段的等值或IN条件对应的routing，多个值以逗号分隔
+     */
+    private static String routing(Predicate predicate, String field, SchemaRegistry.IndexSchema schema) {
+        List<Predicate.Value> values;
+        if (predicate instanceof Predicate.Term && matches(((Predicate.Term) predicate).field, field, schema)) {
+            values = Collections.singletonList(((Predicate.Term) predicate).value);
+        } else if (predicate instanceof Predicate.Terms && matches(((Predicate.Terms) predicate).field, field, schema)) {
+            values = ((Predicate.Terms) predicate).values;
+        } else {
+            return null;
+        }
+
+        Set<String> routing = new LinkedHashSet<>();
+        for (Predicate.Value value : values) {
+            // routing中的逗号是分隔符
+            if (value.isParameter() || value.getText().indexOf(',') >= 0) {
+                return null;
+            }
+            routing.add(value.getText());
+        }
+        return String.join(",", routing);
+    }
+
+    /**
+     * 条件中的字段可能已按映射改为keyword子字段，子字段与原字段的值相同；对象的其他子字段不是同一个字段
+     */
+    private static boolean matches(String predicateField, String field, SchemaRegistry.IndexSchema schema) {
+        return predicateField.equals(field) || (schema != null && predicateField.equals(schema.keywordField(field)));
+    }
+
+    /**
+     * 搜索目标：索引和routing
+     */
+    static final class Target {
+        final List<String> indices;
+        final String routing;
+
+        Target(List<String> indices, String routing) {
+            this.indices = Collections.unmodifiableList(indices);
+            this.routing = routing;
+        }
+    }
+
+    /**
+     * 按时间分区的索引命名规则
+     */
+    private static final class TimePartitions {
+        final String field;
+        final DateTimeFormatter format;
+        final ChronoUnit unit;
+        final ZoneId zone;
+
+        TimePartitions(String field, DateTimeFormatter format, ChronoUnit unit, ZoneId zone) {
+            this.field = field;
+            this.format = format;
+            this.unit = unit;
+            this.zone = zone;
+        }
+
+        /**
+         * 与时间范围重叠的分区索引，条件中没有时间字段的上下界或分区过多时返回null
+         * @param conjuncts 顶层AND中的条件，同一字段的多个范围取交集
+         */
+        List<String> indices(List<Predicate> conjuncts, int maxPartitions, SchemaRegistry.IndexSchema schema) {
+            ZonedDateTime from = null;
+            ZonedDateTime to = null;
+            for (Predicate predicate : conjuncts) {
+                Predicate.Value lower;
+                Predicate.Value upper;
+                if (predicate instanceof Predicate.Range && matches(((Predicate.Range) predicate).field, field, schema)) {
+                    lower = ((Predicate.Range) predicate).lower;
+                    upper = ((Predicate.Range) predicate).upper;
+                } else if (predicate instanceof Predicate.Term && matches(((Predicate.Term) predicate).field, field, schema)) {
+                    lower = ((Predicate.Term) predicate).value;
+                    upper = lower;
+                } else {
+                    continue;
+                }
+                ZonedDateTime start = lower == null ? null : time(lower);
+                ZonedDateTime end = upper == null ? null : time(upper);
+                if (start != null && (from == null || start.isAfter(from))) {
+                    from = start;
+                }
+                if (end != null && (to == null || end.isBefore(to))) {
+                    to = end;
+                }
+            }
+            if (from == null || to == null) {
+                return null;
+            }
+
+            // 边界是否包含不影响结果，只会多搜索一个分区
+            List<String> indices = new ArrayList<>();
+            for (ZonedDateTime partition = truncate(from); !partition.isAfter(to); partition = partition.plus(1, unit)) {
+                if (indices.size() == maxPartitions) {
+                    return null;
+                }
+                indices.add(format.format(partition));
+            }
+            // 上界早于下界时没有重叠的分区，交给查询条件处理
+            return indices.isEmpty() ? null : indices;
+        }
+
+        /**
+         * 分区的开始时间
+         */
+        private ZonedDateTime truncate(ZonedDateTime time) {
+            switch (unit) {
+                case WEEKS:
+                    // ISO周从周一开始
+                    ZonedDateTime day = time.truncatedTo(ChronoUnit.DAYS);
+                    return day.minusDays(day.getDayOfWeek().getValue() - 1);
+                case MONTHS:
+                    return time.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1);
+                case YEARS:
+                    return time.truncatedTo(ChronoUnit.DAYS).withDayOfYear(1);
+                default:
+                    return time.truncatedTo(unit);
+            }
+        }
+
+        /**
+         * 把比较值解释为时间：数字为毫秒时间戳，字符串为ISO日期或日期时间，无法解释时返回null
+         */
+        private ZonedDateTime time(Predicate.Value value) {
+            if (value.isParameter()) {
+                return null;
+            }
+            if (value.getNumber() != null) {
+                return Instant.ofEpochMilli(value.getNumber().longValue()).atZone(zone);
+            }
+            String text = value.getText().trim().replace(' ', 'T');
+            try {
+                if (text.indexOf('T') < 0) {
+                    return LocalDate.parse(text).atStartOfDay(zone);
+                }
+                try {
+                    return OffsetDateTime.parse(text).atZoneSameInstant(zone);
+                } catch (DateTimeParseException e) {
+                    // 不带时区
+                    return LocalDateTime.parse(text).atZone(zone);
+                }
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * 流式读取Elasticsearch响应的工具方法
+ */
+final class JsonResponses {
+
+    private JsonResponses() {
+    }
+
+    /**
+     * 在当前对象中查找指定名称的对象字段，找到时停在该对象的开始位置，其余字段直接跳过
+     */
+    static boolean moveToObjectField(JsonParser parser, String fieldName) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals(fieldName) && token == JsonToken.START_OBJECT) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * 在当前对象中查找指定名称的数组字段，找到时停在数组的开始位置
+     */
+    static boolean moveToArrayField(JsonParser parser, String fieldName) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals(fieldName) && token == JsonToken.START_ARRAY) {
+                return true;
+            }
+            parser.skipChildren();
+        }
+        return false;
+    }
+
+    /**
+     * 读取只包含标量值的对象，当前位置为对象的开始
+     */
+    static Map<String, Object> readScalars(JsonParser parser) throws IOException {
+        Map<String, Object> values = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            parser.nextToken();
+            values.put(name, readScalar(parser));
+        }
+        return values;
+    }
+
+    /**
+     * 读取只包含标量值的数组，当前位置为数组的开始
+     */
+    static List<Object> readScalarArray(JsonParser parser) throws IOException {
+        List<Object> values = new ArrayList<>();
+        while (parser.nextToken() != JsonToken.END_ARRAY) {
+            values.add(readScalar(parser));
+        }
+        return values;
+    }
+
+    /**
+     * 读取当前位置的任意值，对象读取为Map，数组读取为List
+     */
+    static Object readValue(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case START_OBJECT: {
+                Map<String, Object> values = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String name = parser.getCurrentName();
+                    parser.nextToken();
+                    values.put(name, readValue(parser));
+                }
+                return values;
+            }
+            case START_ARRAY: {
+                List<Object> values = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    values.add(readValue(parser));
+                }
+                return values;
+            }
+            default:
+                return readScalar(parser);
+        }
+    }
+
+    /**
+     * 读取对象并展开嵌套对象，字段名使用点号连接的完整路径，当前位置为对象的开始
+     * @param prefix 字段名前缀，顶层为空字符串
+     */
+    static void readFlattened(JsonParser parser, String prefix, Map<String, Object> values) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = prefix + parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                readFlattened(parser, name + ".", values);
+            } else {
+                values.put(name, readValue(parser));
+            }
+        }
+    }
+
+    /**
+     * 读取当前位置的标量值，对象和数组被跳过并返回null
+     */
+    static Object readScalar(JsonParser parser) throws IOException {
+        switch (parser.currentToken()) {
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return parser.getDecimalValue();
+            case VALUE_TRUE:
+            case VALUE_FALSE:
+                return parser.getBooleanValue();
+            default:
+                parser.skipChildren();
+                return null;
+        }
+    }
+}
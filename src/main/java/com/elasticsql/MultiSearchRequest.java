@@ -0,0 +1,216 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+
+/**
+ * 多条SQL合并成的一次 _msearch 请求
+ *
+ * 由 {@link ElasticSqlConverter#multiSearch(java.util.Collection, ConverterConfig)} 创建，
+ * 所有SQL在创建时转换完成，转换失败时直接抛出异常，不会写出不完整的请求体。
+ * 目标索引、routing和DSL都相同的SQL只发送一次，共用响应中的同一项，
+ * {@link #getSlot(int)} 给出每条SQL对应 responses 数组中的位置。
+ * 实例不可变，可以在多个线程间共享。
+ *
+ * <pre>
+ * MultiSearchRequest request = ElasticSqlConverter.multiSearch(sqls);
+ * request.writeTo(out); // POST /_msearch，Content-Type: application/x-ndjson
+ * request.decode(response, (statement, row) -&gt; ...);
+ * </pre>
+ */
+public final class MultiSearchRequest {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final List<ConversionResult> statements;
+    private final int[] slots;
+    /**
+     * 每个请求第一次出现时的SQL序号
+     */
+    private final List<Integer> searches = new ArrayList<>();
+
+    MultiSearchRequest(List<ConversionResult> statements) {
+        this.statements = Collections.unmodifiableList(new ArrayList<>(statements));
+        this.slots = new int[statements.size()];
+        Map<String, Integer> seen = new HashMap<>();
+        for (int i = 0; i < slots.length; i++) {
+            ConversionResult result = statements.get(i);
+            Integer slot = seen.putIfAbsent(header(result) + '\n' + result.getDsl(), searches.size());
+            if (slot == null) {
+                slot = searches.size();
+                searches.add(i);
+            }
+            slots[i] = slot;
+        }
+    }
+
+    /**
+     * 每条SQL的转换结果，与输入顺序一致
+     */
+    public List<ConversionResult> getStatements() {
+        return statements;
+    }
+
+    /**
+     * 去重后实际发送的搜索数
+     */
+    public int getSearchCount() {
+        return searches.size();
+    }
+
+    /**
+     * 第statement条SQL（从0开始）的结果在 _msearch 响应的 responses 数组中的位置
+     */
+    public int getSlot(int statement) {
+        return slots[statement];
+    }
+
+    /**
+     * 把NDJSON请求体写入输出流，每个搜索一行header、一行body，写入完成后不关闭输出流
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+        writeTo(writer);
+        writer.flush();
+    }
+
+    /**
+     * 把NDJSON请求体写入Writer，写入完成后不关闭
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (int statement : searches) {
+            ConversionResult result = statements.get(statement);
+            writer.write(header(result));
+            writer.write('\n');
+            writer.write(result.getDsl());
+            writer.write('\n');
+        }
+    }
+
+    /**
+     * 返回NDJSON请求体文本
+     */
+    public String toNdjson() throws IOException {
+        StringWriter writer = new StringWriter(256 * searches.size());
+        writeTo(writer);
+        return writer.toString();
+    }
+
+    /**
+     * 流式读取 _msearch 响应，按SQL的转换结果逐行输出
+     * 多条SQL共用同一项响应时只缓存该项的token，其余项边读边输出
+     * @param rows 接收SQL序号和结果行
+     * @return 输出的总行数
+     * @throws IOException 某一项为错误信息时
+     */
+    public long decode(InputStream response, BiConsumer<Integer, Map<String, Object>> rows) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return decode(parser, rows);
+        }
+    }
+
+    /**
+     * 读取响应文本
+     */
+    public long decode(String response, BiConsumer<Integer, Map<String, Object>> rows) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            return decode(parser, rows);
+        }
+    }
+
+    private long decode(JsonParser parser, BiConsumer<Integer, Map<String, Object>> rows) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT
+                || !JsonResponses.moveToArrayField(parser, "responses")) {
+            throw new IllegalArgumentException("Multi search response must contain a responses array");
+        }
+
+        List<List<Integer>> slotStatements = new ArrayList<>(searches.size());
+        for (int i = 0; i < searches.size(); i++) {
+            slotStatements.add(new ArrayList<>(1));
+        }
+        for (int i = 0; i < slots.length; i++) {
+            slotStatements.get(slots[i]).add(i);
+        }
+
+        long count = 0;
+        int slot = 0;
+        while (parser.nextToken() == JsonToken.START_OBJECT) {
+            if (slot >= searches.size()) {
+                throw new IllegalArgumentException("Multi search response has more items than searches");
+            }
+            List<Integer> targets = slotStatements.get(slot++);
+            if (targets.size() == 1) {
+                int statement = targets.get(0);
+                count += statements.get(statement).getDecoder()
+                        .decodeObject(parser, row -> rows.accept(statement, row));
+                continue;
+            }
+
+            TokenBuffer buffer = new TokenBuffer(parser);
+            buffer.copyCurrentStructure(parser);
+            for (int statement : targets) {
+                try (JsonParser item = buffer.asParser()) {
+                    item.nextToken();
+                    count += statements.get(statement).getDecoder()
+                            .decodeObject(item, row -> rows.accept(statement, row));
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 搜索的header行
+     */
+    private static String header(ConversionResult result) {
+        StringWriter writer = new StringWriter(32);
+        try (JsonGenerator gen = JSON_FACTORY.createGenerator(writer)) {
+            gen.writeStartObject();
+            gen.writeStringField("index", result.getTargetIndex());
+            if (result.getTargetIndices().size() > 1 || !result.getTargetIndex().equals(result.getIndex())) {
+                // 裁剪后的分区索引可能不存在
+                gen.writeBooleanField("ignore_unavailable", true);
+            }
+            if (result.getRouting() != null) {
+                gen.writeStringField("routing", result.getRouting());
+            }
+            // request_cache、preference在header中与URL参数同名
+            for (Map.Entry<String, String> param : result.getRequestParams().entrySet()) {
+                if (param.getKey().equals("request_cache")) {
+                    gen.writeBooleanField(param.getKey(), Boolean.parseBoolean(param.getValue()));
+                } else {
+                    gen.writeStringField(param.getKey(), param.getValue());
+                }
+            }
+            gen.writeEndObject();
+        } catch (IOException e) {
+            // StringWriter不会抛出IOException
+            throw new UncheckedIOException(e);
+        }
+        return writer.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "MultiSearchRequest{statements=" + statements.size() + ", searches=" + searches.size() + "}";
+    }
+}
@@ -0,0 +1,22 @@
+package com.elasticsql;
+
+/**
+ * SQL解析方式
+ */
+public enum ParseMode {
+    /**
+     * 使用CCJSqlParserUtil.parse，每次解析在单独的线程上执行并受超时控制
+     */
+    JSQLPARSER,
+
+    /**
+     * 在调用线程上直接使用JSqlParser解析，以SQL长度和嵌套深度限制代替超时
+     */
+    DIRECT,
+
+    /**
+     * 简单的 SELECT ... FROM ... WHERE ... ORDER BY ... LIMIT 查询使用手写解析器，
+     * 其余SQL回退到DIRECT方式
+     */
+    FAST_PATH
+}
@@ -0,0 +1,520 @@
+package com.elasticsql;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * WHERE条件的中间表示
+ *
+ * 由JSqlParser表达式树构建，经过 {@link PredicateOptimizer} 改写后再写成DSL。
+ * 节点不可变，equals/hashCode按结构比较。
+ */
+abstract class Predicate {
+
+    /**
+     * 条件中是否包含参数占位符
+     */
+    abstract boolean hasParameter();
+
+    /**
+     * 比较值写入DSL时的JSON类型
+     */
+    enum Kind {
+        STRING,
+        NUMBER,
+        BOOLEAN
+    }
+
+    /**
+     * 比较值：字面量文本或参数占位标记
+     */
+    static final class Value {
+        private final String text;
+        private final BigDecimal number;
+        private final boolean parameter;
+        private final Kind kind;
+
+        private Value(String text, BigDecimal number, boolean parameter, Kind kind) {
+            this.text = text;
+            this.number = number;
+            this.parameter = parameter;
+            this.kind = kind;
+        }
+
+        static Value literal(String text) {
+            return new Value(text, null, false, Kind.STRING);
+        }
+
+        static Value number(String text) {
+            return new Value(text, new BigDecimal(text), false, Kind.STRING);
+        }
+
+        /**
+         * 按JSON数字写入的数值
+         */
+        static Value numeric(BigDecimal number) {
+            return new Value(number.toString(), number, false, Kind.NUMBER);
+        }
+
+        static Value parameter(String marker) {
+            return new Value(marker, null, true, Kind.STRING);
+        }
+
+        /**
+         * 返回按指定JSON类型写入的副本，参数占位标记同时改为对应类型的槽位
+         */
+        Value withKind(Kind kind) {
+            if (kind == this.kind) {
+                return this;
+            }
+            return new Value(parameter ? PreparedQuery.withKind(text, kind) : text, number, parameter, kind);
+        }
+
+        /**
+         * 写入DSL的文本
+         */
+        String getText() {
+            return text;
+        }
+
+        /**
+         * 数字字面量的值，其他情况为null
+         */
+        BigDecimal getNumber() {
+            return number;
+        }
+
+        boolean isParameter() {
+            return parameter;
+        }
+
+        /**
+         * 写入DSL时的JSON类型，默认为字符串
+         */
+        Kind getKind() {
+            return kind;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Value)) {
+                return false;
+            }
+            Value other = (Value) o;
+            return parameter == other.parameter && kind == other.kind && text.equals(other.text);
+        }
+
+        @Override
+        public int hashCode() {
+            return text.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return text;
+        }
+    }
+
+    static final class And extends Predicate {
+        final List<Predicate> operands;
+
+        And(List<Predicate> operands) {
+            this.operands = Collections.unmodifiableList(new ArrayList<>(operands));
+        }
+
+        @Override
+        boolean hasParameter() {
+            for (Predicate operand : operands) {
+                if (operand.hasParameter()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof And && operands.equals(((And) o).operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return operands.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return "And" + operands;
+        }
+    }
+
+    static final class Or extends Predicate {
+        final List<Predicate> operands;
+
+        Or(List<Predicate> operands) {
+            this.operands = Collections.unmodifiableList(new ArrayList<>(operands));
+        }
+
+        @Override
+        boolean hasParameter() {
+            for (Predicate operand : operands) {
+                if (operand.hasParameter()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Or && operands.equals(((Or) o).operands);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * operands.hashCode() + 1;
+        }
+
+        @Override
+        public String toString() {
+            return "Or" + operands;
+        }
+    }
+
+    static final class Not extends Predicate {
+        final Predicate operand;
+
+        Not(Predicate operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean hasParameter() {
+            return operand.hasParameter();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Not && operand.equals(((Not) o).operand);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * operand.hashCode() + 2;
+        }
+
+        @Override
+        public String toString() {
+            return "Not(" + operand + ")";
+        }
+    }
+
+    /**
+     * 等于条件
+     */
+    static final class Term extends Predicate {
+        final String field;
+        final Value value;
+
+        Term(String field, Value value) {
+            this.field = field;
+            this.value = value;
+        }
+
+        @Override
+        boolean hasParameter() {
+            return value.isParameter();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Term)) {
+                return false;
+            }
+            Term other = (Term) o;
+            return field.equals(other.field) && value.equals(other.value);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * field.hashCode() + value.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return field + "=" + value;
+        }
+    }
+
+    /**
+     * 字段等于多个值中的任意一个
+     */
+    static final class Terms extends Predicate {
+        final String field;
+        final List<Value> values;
+
+        Terms(String field, List<Value> values) {
+            this.field = field;
+            this.values = Collections.unmodifiableList(new ArrayList<>(values));
+        }
+
+        @Override
+        boolean hasParameter() {
+            for (Value value : values) {
+                if (value.isParameter()) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Terms)) {
+                return false;
+            }
+            Terms other = (Terms) o;
+            return field.equals(other.field) && values.equals(other.values);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * field.hashCode() + values.hashCode();
+        }
+
+        @Override
+        public String toString() {
+            return field + " IN " + values;
+        }
+    }
+
+    /**
+     * 字段等于另一个索引中某个文档的字段里的任意一个值（terms lookup）
+     */
+    static final class TermsLookup extends Predicate {
+        final String field;
+        final String index;
+        final Value id;
+        final String path;
+
+        TermsLookup(String field, String index, Value id, String path) {
+            this.field = field;
+            this.index = index;
+            this.id = id;
+            this.path = path;
+        }
+
+        @Override
+        boolean hasParameter() {
+            return id.isParameter();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof TermsLookup)) {
+                return false;
+            }
+            TermsLookup other = (TermsLookup) o;
+            return field.equals(other.field) && index.equals(other.index) && id.equals(other.id)
+                    && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, index, id, path);
+        }
+
+        @Override
+        public String toString() {
+            return field + " IN " + index + "/" + id + "." + path;
+        }
+    }
+
+    /**
+     * 范围条件，下界和上界都可以为空
+     */
+    static final class Range extends Predicate {
+        final String field;
+        final Value lower;
+        final boolean includeLower;
+        final Value upper;
+        final boolean includeUpper;
+
+        Range(String field, Value lower, boolean includeLower, Value upper, boolean includeUpper) {
+            this.field = field;
+            this.lower = lower;
+            this.includeLower = includeLower;
+            this.upper = upper;
+            this.includeUpper = includeUpper;
+        }
+
+        @Override
+        boolean hasParameter() {
+            return (lower != null && lower.isParameter()) || (upper != null && upper.isParameter());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Range)) {
+                return false;
+            }
+            Range other = (Range) o;
+            return field.equals(other.field) && Objects.equals(lower, other.lower) && includeLower == other.includeLower
+                    && Objects.equals(upper, other.upper) && includeUpper == other.includeUpper;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, lower, includeLower, upper, includeUpper);
+        }
+
+        @Override
+        public String toString() {
+            return field + (lower == null ? "" : (includeLower ? ">=" : ">") + lower)
+                    + (upper == null ? "" : (includeUpper ? "<=" : "<") + upper);
+        }
+    }
+
+    /**
+     * 字段以指定前缀开头（LIKE 'abc%'）
+     */
+    static final class Prefix extends Predicate {
+        final String field;
+        final String value;
+        final boolean caseInsensitive;
+
+        Prefix(String field, String value, boolean caseInsensitive) {
+            this.field = field;
+            this.value = value;
+            this.caseInsensitive = caseInsensitive;
+        }
+
+        @Override
+        boolean hasParameter() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Prefix)) {
+                return false;
+            }
+            Prefix other = (Prefix) o;
+            return field.equals(other.field) && value.equals(other.value) && caseInsensitive == other.caseInsensitive;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, value, caseInsensitive);
+        }
+
+        @Override
+        public String toString() {
+            return field + " PREFIX " + value;
+        }
+    }
+
+    /**
+     * 通配符匹配，pattern使用Elasticsearch的 * 和 ? 语法
+     */
+    static final class Wildcard extends Predicate {
+        final String field;
+        final String pattern;
+        final boolean caseInsensitive;
+
+        Wildcard(String field, String pattern, boolean caseInsensitive) {
+            this.field = field;
+            this.pattern = pattern;
+            this.caseInsensitive = caseInsensitive;
+        }
+
+        @Override
+        boolean hasParameter() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Wildcard)) {
+                return false;
+            }
+            Wildcard other = (Wildcard) o;
+            return field.equals(other.field) && pattern.equals(other.pattern)
+                    && caseInsensitive == other.caseInsensitive;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(field, pattern, caseInsensitive);
+        }
+
+        @Override
+        public String toString() {
+            return field + " WILDCARD " + pattern;
+        }
+    }
+
+    /**
+     * 字段有值（IS NOT NULL）
+     */
+    static final class Exists extends Predicate {
+        final String field;
+
+        Exists(String field) {
+            this.field = field;
+        }
+
+        @Override
+        boolean hasParameter() {
+            return false;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Exists && field.equals(((Exists) o).field);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * field.hashCode() + 3;
+        }
+
+        @Override
+        public String toString() {
+            return field + " EXISTS";
+        }
+    }
+
+    /**
+     * 匹配所有文档，也用于无法转换的条件
+     */
+    static final Predicate MATCH_ALL = new Predicate() {
+        @Override
+        boolean hasParameter() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "MatchAll";
+        }
+    };
+
+    /**
+     * 不匹配任何文档
+     */
+    static final Predicate MATCH_NONE = new Predicate() {
+        @Override
+        boolean hasParameter() {
+            return false;
+        }
+
+        @Override
+        public String toString() {
+            return "MatchNone";
+        }
+    };
+}
@@ -0,0 +1,498 @@
+package com.elasticsql;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * WHERE条件的改写
+ *
+ * 在写成DSL之前对条件树做以下改写：
+ * 展开嵌套的AND/OR；同一字段上的多个范围条件合并为一个range；
+ * OR连接的同一字段等于条件合并为terms；去掉重复、恒真的条件，
+ * 能确定互相矛盾的AND条件改写为match_none。
+ * 按SQL语义假设字段为单值字段。
+ *
+ * 参数占位符的值在转换时未知，涉及参数的条件不做值比较，也不会被删除，
+ * 保证预编译模板的槽位与SQL中的占位符一一对应。
+ * 如果改写结果取决于字面量的值（把字面量替换为参数后结果会不同），
+ * {@link #isLiteralDependent()} 返回true，这类SQL形状不能被 {@link DslCache} 模板化。
+ */
+final class PredicateOptimizer {
+    private boolean literalDependent;
+
+    /**
+     * 改写条件树
+     */
+    Predicate optimize(Predicate predicate) {
+        if (predicate instanceof Predicate.And) {
+            return optimizeAnd((Predicate.And) predicate);
+        }
+        if (predicate instanceof Predicate.Or) {
+            return optimizeOr((Predicate.Or) predicate);
+        }
+        if (predicate instanceof Predicate.Not) {
+            return optimizeNot((Predicate.Not) predicate);
+        }
+        return predicate;
+    }
+
+    /**
+     * 改写结果是否依赖字面量的值
+     */
+    boolean isLiteralDependent() {
+        return literalDependent;
+    }
+
+    private Predicate optimizeAnd(Predicate.And and) {
+        List<Predicate> operands = flatten(and, Predicate.And.class);
+
+        // 同一字段的条件在result中的位置，用于合并
+        List<Predicate> result = new ArrayList<>(operands.size());
+        Map<String, List<Integer>> fields = new HashMap<>();
+        Set<Predicate> seen = new HashSet<>();
+        Map<String, Boolean> shapes = new HashMap<>();
+        boolean contradiction = false;
+        for (Predicate operand : operands) {
+            if (operand == Predicate.MATCH_ALL) {
+                continue;
+            }
+            if (operand == Predicate.MATCH_NONE) {
+                contradiction = true;
+                continue;
+            }
+            if (isFieldPredicate(operand)) {
+                // 与之前同一字段的条件合并
+                List<Integer> indexes = fields.computeIfAbsent(field(operand), f -> new ArrayList<>(1));
+                boolean merged = false;
+                for (int i = 0; i < indexes.size() && !merged; i++) {
+                    Predicate combined = intersect(result.get(indexes.get(i)), operand);
+                    if (combined == Predicate.MATCH_NONE) {
+                        contradiction = true;
+                        merged = true;
+                    } else if (combined != null) {
+                        result.set(indexes.get(i), combined);
+                        merged = true;
+                    }
+                }
+                if (!merged) {
+                    indexes.add(result.size());
+                    result.add(operand);
+                }
+            } else if (!isDuplicate(operand, seen, shapes)) {
+                result.add(operand);
+            }
+        }
+
+        if (contradiction) {
+            // 包含参数的条件保留下来，其余条件已无意义
+            List<Predicate> kept = new ArrayList<>();
+            kept.add(Predicate.MATCH_NONE);
+            for (Predicate operand : result) {
+                if (operand.hasParameter()) {
+                    kept.add(operand);
+                }
+            }
+            return kept.size() == 1 ? Predicate.MATCH_NONE : new Predicate.And(kept);
+        }
+        if (result.isEmpty()) {
+            return Predicate.MATCH_ALL;
+        }
+        return result.size() == 1 ? result.get(0) : new Predicate.And(result);
+    }
+
+    private Predicate optimizeOr(Predicate.Or or) {
+        List<Predicate> operands = flatten(or, Predicate.Or.class);
+
+        List<Predicate> result = new ArrayList<>(operands.size());
+        // 等于条件的字段在result中的位置，以及合并后的值
+        Map<String, Integer> termFields = new HashMap<>();
+        Map<Integer, TermValues> merged = new HashMap<>();
+        Set<Predicate> seen = new HashSet<>();
+        Map<String, Boolean> shapes = new HashMap<>();
+        boolean matchAll = false;
+        for (Predicate operand : operands) {
+            if (operand == Predicate.MATCH_NONE) {
+                continue;
+            }
+            if (operand == Predicate.MATCH_ALL) {
+                matchAll = true;
+                continue;
+            }
+            if (operand instanceof Predicate.Term || operand instanceof Predicate.Terms) {
+                // 同一字段的等于条件合并为terms，保持值的出现顺序
+                Integer index = termFields.putIfAbsent(field(operand), result.size());
+                if (index != null) {
+                    TermValues values = merged.computeIfAbsent(index, i -> new TermValues(result.get(i)));
+                    values.addAll(operand);
+                    continue;
+                }
+                result.add(operand);
+                continue;
+            }
+            if (!isDuplicate(operand, seen, shapes)) {
+                result.add(operand);
+            }
+        }
+        for (Map.Entry<Integer, TermValues> entry : merged.entrySet()) {
+            TermValues values = entry.getValue();
+            if (values.hasParameter) {
+                // 替换为字面量后重复的值会被去掉
+                literalDependent = true;
+            }
+            result.set(entry.getKey(), values.toPredicate());
+        }
+
+        if (matchAll) {
+            List<Predicate> kept = new ArrayList<>();
+            kept.add(Predicate.MATCH_ALL);
+            for (Predicate operand : result) {
+                if (operand.hasParameter()) {
+                    kept.add(operand);
+                }
+            }
+            return kept.size() == 1 ? Predicate.MATCH_ALL : new Predicate.Or(kept);
+        }
+        if (result.isEmpty()) {
+            return Predicate.MATCH_NONE;
+        }
+        return result.size() == 1 ? result.get(0) : new Predicate.Or(result);
+    }
+
+    /**
+     * 展开同类的AND/OR链并改写其中的其他条件
+     * 左深的长链用栈逐层展开，不递归，每个节点只访问一次
+     */
+    private List<Predicate> flatten(Predicate chain, Class<? extends Predicate> type) {
+        List<Predicate> operands = new ArrayList<>();
+        Deque<Predicate> pending = new ArrayDeque<>();
+        pending.push(chain);
+        while (!pending.isEmpty()) {
+            Predicate node = pending.pop();
+            if (type.isInstance(node)) {
+                List<Predicate> children = operands(node);
+                for (int i = children.size() - 1; i >= 0; i--) {
+                    pending.push(children.get(i));
+                }
+                continue;
+            }
+            Predicate optimized = optimize(node);
+            if (type.isInstance(optimized)) {
+                // 改写结果中的同类条件已经展开
+                operands.addAll(operands(optimized));
+            } else {
+                operands.add(optimized);
+            }
+        }
+        return operands;
+    }
+
+    private static List<Predicate> operands(Predicate chain) {
+        return chain instanceof Predicate.And ? ((Predicate.And) chain).operands : ((Predicate.Or) chain).operands;
+    }
+
+    private Predicate optimizeNot(Predicate.Not not) {
+        Predicate operand = optimize(not.operand);
+        if (operand instanceof Predicate.Not) {
+            return ((Predicate.Not) operand).operand;
+        }
+        if (operand == Predicate.MATCH_ALL) {
+            return Predicate.MATCH_NONE;
+        }
+        if (operand == Predicate.MATCH_NONE) {
+            return Predicate.MATCH_ALL;
+        }
+        return operand == not.operand ? not : new Predicate.Not(operand);
+    }
+
+    /**
+     * 判断条件是否与之前的条件重复，包含参数的条件不去重
+     * @param seen 之前不含参数的条件
+     * @param shapes 之前条件的结构，值为其中是否有包含参数的条件
+     */
+    private boolean isDuplicate(Predicate operand, Set<Predicate> seen, Map<String, Boolean> shapes) {
+        boolean parameter = operand.hasParameter();
+        String shape = shape(operand);
+        if (shape != null) {
+            Boolean parameterShape = shapes.get(shape);
+            if (parameterShape != null && (parameter || parameterShape)) {
+                // 替换为字面量后可能会被去重
+                literalDependent = true;
+            }
+            shapes.merge(shape, parameter, Boolean::logicalOr);
+        }
+        return !parameter && !seen.add(operand);
+    }
+
+    /**
+     * AND连接的同一字段上两个条件的交集
+     * @return 合并后的条件；MATCH_NONE表示矛盾；null表示无法合并，两个条件都保留
+     */
+    private Predicate intersect(Predicate a, Predicate b) {
+        if (a.hasParameter() || b.hasParameter()) {
+            // 参数的值未知，只合并上下界分别来自两个条件的范围
+            literalDependent = true;
+            if (a instanceof Predicate.Range && b instanceof Predicate.Range) {
+                Predicate.Range x = (Predicate.Range) a;
+                Predicate.Range y = (Predicate.Range) b;
+                if ((x.lower == null || y.lower == null) && (x.upper == null || y.upper == null)) {
+                    return new Predicate.Range(x.field,
+                            x.lower != null ? x.lower : y.lower, x.lower != null ? x.includeLower : y.includeLower,
+                            x.upper != null ? x.upper : y.upper, x.upper != null ? x.includeUpper : y.includeUpper);
+                }
+            }
+            return null;
+        }
+
+        if (a.equals(b)) {
+            return a;
+        }
+        if (b instanceof Predicate.Term && !(a instanceof Predicate.Term)) {
+            Predicate swap = a;
+            a = b;
+            b = swap;
+        }
+
+        if (a instanceof Predicate.Term) {
+            Predicate.Value value = ((Predicate.Term) a).value;
+            if (b instanceof Predicate.Term) {
+                Integer cmp = compare(value, ((Predicate.Term) b).value);
+                if (cmp == null) {
+                    return null;
+                }
+                return cmp == 0 ? a : Predicate.MATCH_NONE;
+            }
+            if (b instanceof Predicate.Terms) {
+                boolean comparable = true;
+                for (Predicate.Value candidate : ((Predicate.Terms) b).values) {
+                    Integer cmp = compare(value, candidate);
+                    if (candidate.equals(value) || (cmp != null && cmp == 0)) {
+                        return a;
+                    }
+                    comparable = comparable && cmp != null;
+                }
+                return comparable ? Predicate.MATCH_NONE : null;
+            }
+            Boolean inRange = contains((Predicate.Range) b, value);
+            if (inRange == null) {
+                return null;
+            }
+            return inRange ? a : Predicate.MATCH_NONE;
+        }
+
+        if (a instanceof Predicate.Terms && b instanceof Predicate.Terms) {
+            return intersectTerms((Predicate.Terms) a, (Predicate.Terms) b);
+        }
+        if (a instanceof Predicate.Range && b instanceof Predicate.Range) {
+            return intersectRanges((Predicate.Range) a, (Predicate.Range) b);
+        }
+        return null;
+    }
+
+    /**
+     * 两个terms条件的交集，有值在另一个条件中找不到又无法比较时返回null
+     */
+    private static Predicate intersectTerms(Predicate.Terms x, Predicate.Terms y) {
+        Set<Predicate.Value> others = new HashSet<>(y.values);
+        Set<BigDecimal> numbers = new HashSet<>();
+        boolean numeric = true;
+        for (Predicate.Value value : y.values) {
+            if (value.getNumber() != null) {
+                numbers.add(value.getNumber().stripTrailingZeros());
+            } else {
+                numeric = false;
+            }
+        }
+
+        Set<Predicate.Value> values = new LinkedHashSet<>();
+        for (Predicate.Value value : x.values) {
+            BigDecimal number = value.getNumber();
+            if (others.contains(value) || (number != null && numbers.contains(number.stripTrailingZeros()))) {
+                values.add(value);
+            } else if (number == null || !numeric) {
+                return null;
+            }
+        }
+        if (values.isEmpty()) {
+            return Predicate.MATCH_NONE;
+        }
+        return values.size() == 1 ? new Predicate.Term(x.field, values.iterator().next())
+                : new Predicate.Terms(x.field, new ArrayList<>(values));
+    }
+
+    private static Predicate intersectRanges(Predicate.Range x, Predicate.Range y) {
+        Predicate.Value lower;
+        boolean includeLower;
+        if (x.lower == null || y.lower == null) {
+            lower = x.lower != null ? x.lower : y.lower;
+            includeLower = x.lower != null ? x.includeLower : y.includeLower;
+        } else {
+            Integer cmp = compare(x.lower, y.lower);
+            if (cmp == null) {
+                if (!x.lower.equals(y.lower)) {
+                    return null;
+                }
+                cmp = 0;
+            }
+            // 取较大的下界，相等时不含边界的更严格
+            lower = cmp >= 0 ? x.lower : y.lower;
+            includeLower = cmp > 0 ? x.includeLower : cmp < 0 ? y.includeLower : x.includeLower && y.includeLower;
+        }
+
+        Predicate.Value upper;
+        boolean includeUpper;
+        if (x.upper == null || y.upper == null) {
+            upper = x.upper != null ? x.upper : y.upper;
+            includeUpper = x.upper != null ? x.includeUpper : y.includeUpper;
+        } else {
+            Integer cmp = compare(x.upper, y.upper);
+            if (cmp == null) {
+                if (!x.upper.equals(y.upper)) {
+                    return null;
+                }
+                cmp = 0;
+            }
+            // 取较小的上界
+            upper = cmp <= 0 ? x.upper : y.upper;
+            includeUpper = cmp < 0 ? x.includeUpper : cmp > 0 ? y.includeUpper : x.includeUpper && y.includeUpper;
+        }
+
+        if (lower != null && upper != null) {
+            Integer cmp = compare(lower, upper);
+            if (cmp != null && (cmp > 0 || (cmp == 0 && !(includeLower && includeUpper)))) {
+                return Predicate.MATCH_NONE;
+            }
+        }
+        return new Predicate.Range(x.field, lower, includeLower, upper, includeUpper);
+    }
+
+    /**
+     * 判断值是否在范围内，无法比较时返回null
+     */
+    private static Boolean contains(Predicate.Range range, Predicate.Value value) {
+        if (range.lower != null) {
+            Integer cmp = compare(value, range.lower);
+            if (cmp == null) {
+                return null;
+            }
+            if (cmp < 0 || (cmp == 0 && !range.includeLower)) {
+                return false;
+            }
+        }
+        if (range.upper != null) {
+            Integer cmp = compare(value, range.upper);
+            if (cmp == null) {
+                return null;
+            }
+            if (cmp > 0 || (cmp == 0 && !range.includeUpper)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 比较两个数字字面量，其他值无法比较，返回null
+     */
+    private static Integer compare(Predicate.Value a, Predicate.Value b) {
+        BigDecimal x = a.getNumber();
+        BigDecimal y = b.getNumber();
+        if (x == null || y == null) {
+            return null;
+        }
+        return x.compareTo(y);
+    }
+
+    /**
+     * 忽略比较值时条件的结构，结构相同的条件替换字面量后可能相等；无法比较结构时返回null
+     */
+    private static String shape(Predicate predicate) {
+        if (predicate instanceof Predicate.Term) {
+            return "T:" + ((Predicate.Term) predicate).field;
+        }
+        if (predicate instanceof Predicate.Terms) {
+            return "S" + ((Predicate.Terms) predicate).values.size() + ":" + ((Predicate.Terms) predicate).field;
+        }
+        if (predicate instanceof Predicate.Range) {
+            Predicate.Range range = (Predicate.Range) predicate;
+            return "R" + (range.lower == null ? '_' : range.includeLower ? '[' : '(')
+                    + (range.upper == null ? '_' : range.includeUpper ? ']' : ')') + ":" + range.field;
+        }
+        if (predicate instanceof Predicate.Not) {
+            String operand = shape(((Predicate.Not) predicate).operand);
+            return operand == null ? null : "N(" + operand + ")";
+        }
+        if (!(predicate instanceof Predicate.And) && !(predicate instanceof Predicate.Or)) {
+            return null;
+        }
+        StringBuilder shape = new StringBuilder(predicate instanceof Predicate.And ? "A(" : "O(");
+        for (Predicate operand : operands(predicate)) {
+            String operandShape = shape(operand);
+            if (operandShape == null) {
+                return null;
+            }
+            shape.append(operandShape).append('\n');
+        }
+        return shape.append(')').toString();
+    }
+
+    private static boolean isFieldPredicate(Predicate predicate) {
+        return predicate instanceof Predicate.Term || predicate instanceof Predicate.Terms
+                || predicate instanceof Predicate.Range;
+    }
+
+    private static String field(Predicate predicate) {
+        if (predicate instanceof Predicate.Term) {
+            return ((Predicate.Term) predicate).field;
+        }
+        if (predicate instanceof Predicate.Terms) {
+            return ((Predicate.Terms) predicate).field;
+        }
+        return ((Predicate.Range) predicate).field;
+    }
+
+    private static List<Predicate.Value> values(Predicate predicate) {
+        if (predicate instanceof Predicate.Term) {
+            return Collections.singletonList(((Predicate.Term) predicate).value);
+        }
+        return ((Predicate.Terms) predicate).values;
+    }
+
+    /**
+     * OR合并同一字段的等于条件时收集的值，重复的字面量只保留一个，参数占位符全部保留
+     */
+    private static final class TermValues {
+        final String field;
+        final List<Predicate.Value> values = new ArrayList<>();
+        final Set<Predicate.Value> literals = new HashSet<>();
+        boolean hasParameter;
+
+        TermValues(Predicate first) {
+            this.field = field(first);
+            addAll(first);
+        }
+
+        void addAll(Predicate predicate) {
+            for (Predicate.Value value : values(predicate)) {
+                if (value.isParameter()) {
+                    hasParameter = true;
+                    values.add(value);
+                } else if (literals.add(value)) {
+                    values.add(value);
+                }
+            }
+        }
+
+        Predicate toPredicate() {
+            return values.size() == 1 ? new Predicate.Term(field, values.get(0)) : new Predicate.Terms(field, values);
+        }
+    }
+}
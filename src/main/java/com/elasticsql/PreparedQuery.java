@@ -0,0 +1,294 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcNamedParameter;
+import net.sf.jsqlparser.expression.JdbcParameter;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * 预编译的SQL模板
+ *
+ * 由 {@link ElasticSqlConverter#prepare(String)} 生成，SQL只解析和转换一次，
+ * DSL被切分为固定的JSON片段和参数槽位，{@link #bind(Object...)} 只做字符串填充。
+ * 实例不可变，可以在多个线程间共享。
+ */
+public final class PreparedQuery {
+    /**
+     * 参数占位标记的前缀，转换时参数值以 "$sql2dsl$?1$s$" 或 "$sql2dsl$:name$s$" 的形式写入DSL
+     */
+    private static final String MARKER_PREFIX = "$sql2dsl$";
+    private static final char KIND_LITERAL = 's';
+    private static final char KIND_INTEGER = 'i';
+    private static final char KIND_NUMBER = 'n';
+    private static final char KIND_BOOLEAN = 'b';
+    private static final char KIND_TYPED = 't';
+
+    private final String sql;
+    private final String tableName;
+    private final String[] fragments;
+    private final Slot[] slots;
+    private final int positionalCount;
+    private final Set<String> parameterNames;
+    private final int estimatedLength;
+
+    private PreparedQuery(String sql, String tableName, String[] fragments, Slot[] slots) {
+        this.sql = sql;
+        this.tableName = tableName;
+        this.fragments = fragments;
+        this.slots = slots;
+
+        int maxIndex = 0;
+        Set<String> names = new HashSet<>();
+        for (Slot slot : slots) {
+            if (slot.name != null) {
+                names.add(slot.name);
+            } else {
+                maxIndex = Math.max(maxIndex, slot.index);
+            }
+        }
+        this.positionalCount = maxIndex;
+        this.parameterNames = names;
+
+        int length = 0;
+        for (String fragment : fragments) {
+            length += fragment.length();
+        }
+        this.estimatedLength = length + slots.length * 16;
+    }
+
+    /**
+     * 使用位置参数（?）绑定，参数按出现顺序从1开始编号
+     */
+    public String bind(Object... params) {
+        if (!parameterNames.isEmpty()) {
+            throw new IllegalArgumentException("Named parameters " + parameterNames + " require bind(Map)");
+        }
+        if (params.length != positionalCount) {
+            throw new IllegalArgumentException("Expected " + positionalCount + " parameters but got " + params.length);
+        }
+        StringBuilder sb = new StringBuilder(estimatedLength);
+        for (int i = 0; i < slots.length; i++) {
+            sb.append(fragments[i]);
+            slots[i].render(params[slots[i].index - 1], sb);
+        }
+        sb.append(fragments[slots.length]);
+        return sb.toString();
+    }
+
+    /**
+     * 使用命名参数（:name）绑定
+     */
+    public String bind(Map<String, ?> params) {
+        if (positionalCount > 0) {
+            throw new IllegalArgumentException("Positional parameters require bind(Object...)");
+        }
+        StringBuilder sb = new StringBuilder(estimatedLength);
+        for (int i = 0; i < slots.length; i++) {
+            Slot slot = slots[i];
+            if (!params.containsKey(slot.name)) {
+                throw new IllegalArgumentException("Missing value for parameter :" + slot.name);
+            }
+            sb.append(fragments[i]);
+            slot.render(params.get(slot.name), sb);
+        }
+        sb.append(fragments[slots.length]);
+        return sb.toString();
+    }
+
+    public String getSql() {
+        return sql;
+    }
+
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * 位置参数的个数
+     */
+    public int getParameterCount() {
+        return positionalCount;
+    }
+
+    public Set<String> getParameterNames() {
+        return parameterNames;
+    }
+
+    /**
+     * 模板占用内存的估算字节数
+     */
+    long estimatedBytes() {
+        return 2L * estimatedLength + 32L * slots.length;
+    }
+
+    /**
+     * 判断表达式是否为参数占位符
+     */
+    static boolean isParameter(Expression expr) {
+        return expr instanceof JdbcParameter || expr instanceof JdbcNamedParameter;
+    }
+
+    /**
+     * 生成整数参数（from/size）的占位标记
+     */
+    static String integerMarker(Expression param) {
+        return marker(param, KIND_INTEGER);
+    }
+
+    /**
+     * 生成按绑定值类型输出的参数（比较值和IN列表）的占位标记，Number输出为数字，其他值输出为字符串
+     */
+    static String typedMarker(Expression param) {
+        return marker(param, KIND_TYPED);
+    }
+
+    /**
+     * 把比较值的参数占位标记改为指定JSON类型的槽位
+     */
+    static String withKind(String marker, Predicate.Kind kind) {
+        char code = kind == Predicate.Kind.NUMBER ? KIND_NUMBER
+                : kind == Predicate.Kind.BOOLEAN ? KIND_BOOLEAN : KIND_LITERAL;
+        return marker.substring(0, marker.length() - 2) + code + "$";
+    }
+
+    private static String marker(Expression param, char kind) {
+        String id;
+        if (param instanceof JdbcNamedParameter) {
+            id = ":" + ((JdbcNamedParameter) param).getName();
+        } else {
+            Integer index = ((JdbcParameter) param).getIndex();
+            id = "?" + index;
+        }
+        return MARKER_PREFIX + id + "$" + kind + "$";
+    }
+
+    /**
+     * 将带占位标记的DSL切分为片段和槽位
+     */
+    static PreparedQuery compile(String sql, String tableName, String dsl) {
+        List<String> fragments = new ArrayList<>();
+        List<Slot> slots = new ArrayList<>();
+        String quotedPrefix = "\"" + MARKER_PREFIX;
+        int pos = 0;
+        int start;
+        while ((start = dsl.indexOf(quotedPrefix, pos)) >= 0) {
+            int idStart = start + quotedPrefix.length();
+            int kindSep = dsl.indexOf('$', idStart);
+            int end = kindSep + 3;
+            if (kindSep < 0 || end >= dsl.length() || dsl.charAt(kindSep + 2) != '$' || dsl.charAt(end) != '"') {
+                throw new IllegalStateException("Malformed parameter marker in DSL at " + start);
+            }
+            fragments.add(dsl.substring(pos, start));
+            slots.add(Slot.parse(dsl.substring(idStart, kindSep), dsl.charAt(kindSep + 1)));
+            pos = end + 1;
+        }
+        fragments.add(dsl.substring(pos));
+
+        int declared = countParameters(sql);
+        if (declared != slots.size()) {
+            throw new UnsupportedOperationException(
+                    "Parameters are only supported as comparison values and in LIMIT/OFFSET");
+        }
+        return new PreparedQuery(sql, tableName, fragments.toArray(new String[0]), slots.toArray(new Slot[0]));
+    }
+
+    /**
+     * 统计SQL中出现的占位符个数，跳过字符串、引号标识符和注释
+     */
+    static int countParameters(String sql) {
+        int count = 0;
+        int len = sql.length();
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"' || c == '`') {
+                int close = sql.indexOf(c, i + 1);
+                while (close >= 0 && close + 1 < len && sql.charAt(close + 1) == c) {
+                    close = sql.indexOf(c, close + 2);
+                }
+                i = close < 0 ? len : close;
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                int eol = sql.indexOf('\n', i);
+                i = eol < 0 ? len : eol;
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                int close = sql.indexOf("*/", i + 2);
+                i = close < 0 ? len : close + 1;
+            } else if (c == '?') {
+                count++;
+                while (i + 1 < len && Character.isDigit(sql.charAt(i + 1))) {
+                    i++;
+                }
+            } else if (c == ':' && i + 1 < len && Character.isJavaIdentifierStart(sql.charAt(i + 1))
+                    && (i == 0 || sql.charAt(i - 1) != ':')) {
+                count++;
+                while (i + 1 < len && Character.isJavaIdentifierPart(sql.charAt(i + 1))) {
+                    i++;
+                }
+            }
+        }
+        return count;
+    }
+
+    static boolean isNumber(String text) {
+        try {
+            new BigDecimal(text);
+            return true;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+
+    static boolean isBoolean(String text) {
+        return text.equalsIgnoreCase("true") || text.equalsIgnoreCase("false");
+    }
+
+    /**
+     * 参数槽位
+     */
+    private static final class Slot {
+        final int index;
+        final String name;
+        final char kind;
+
+        private Slot(int index, String name, char kind) {
+            this.index = index;
+            this.name = name;
+            this.kind = kind;
+        }
+
+        static Slot parse(String id, char kind) {
+            if (id.startsWith(":")) {
+                return new Slot(0, id.substring(1), kind);
+            }
+            return new Slot(Integer.parseInt(id.substring(1)), null, kind);
+        }
+
+        void render(Object value, StringBuilder sb) {
+            if (value == null) {
+                sb.append("null");
+            } else if (kind == KIND_INTEGER) {
+                // 与convert一致，from/size按整数输出
+                sb.append(Integer.parseInt(String.valueOf(value)));
+            } else if (kind == KIND_NUMBER && isNumber(String.valueOf(value))) {
+                // 数值字段按数字输出，与convert一致使用BigDecimal的文本形式
+                sb.append(new BigDecimal(String.valueOf(value)));
+            } else if (kind == KIND_TYPED && value instanceof Number && isNumber(String.valueOf(value))) {
+                // 与convert中的数字字面量一致，Number按数字输出
+                sb.append(new BigDecimal(String.valueOf(value)));
+            } else if (kind == KIND_BOOLEAN && isBoolean(String.valueOf(value))) {
+                sb.append(String.valueOf(value).toLowerCase());
+            } else {
+                // 与convert中的字符串字面量一致，其他值以字符串形式输出
+                sb.append('"');
+                JsonStringEncoder.getInstance().quoteAsString(String.valueOf(value), sb);
+                sb.append('"');
+            }
+        }
+    }
+}
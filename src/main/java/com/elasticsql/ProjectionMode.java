@@ -0,0 +1,21 @@
+package com.elasticsql;
+
+/**
+ * SELECT字段列表的返回方式
+ */
+public enum ProjectionMode {
+    /**
+     * 通过_source.includes只返回选中的字段
+     */
+    SOURCE,
+
+    /**
+     * 不返回_source，从doc values读取选中的字段（docvalue_fields）
+     */
+    DOCVALUE_FIELDS,
+
+    /**
+     * 不返回_source，通过fields按映射读取选中的字段
+     */
+    FIELDS
+}
@@ -0,0 +1,17 @@
+package com.elasticsql;
+
+/**
+ * WHERE条件的查询上下文
+ */
+public enum QueryContext {
+    /**
+     * 过滤上下文：AND条件写入bool.filter，单个条件和OR条件包装在constant_score中，
+     * 不计算相关性得分，Elasticsearch可以缓存这些条件
+     */
+    FILTER,
+
+    /**
+     * 评分上下文：AND条件写入bool.must，与早期版本的输出一致
+     */
+    SCORING
+}
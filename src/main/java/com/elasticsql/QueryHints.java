@@ -0,0 +1,149 @@
+package com.elasticsql;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SELECT之后的提示注释 {@code /*+ ... *}{@code /} 中的执行选项
+ *
+ * 支持 REQUEST_CACHE[(true|false)]、PREFERENCE('value')、TIMEOUT('200ms')、TERMINATE_AFTER(n) 和 PROFILE，
+ * 名称不区分大小写，多个提示以空格或逗号分隔。timeout、terminate_after、profile写入请求体，
+ * request_cache、preference是请求参数，由转换结果返回。不认识的提示忽略并给出警告。
+ */
+final class QueryHints {
+    static final QueryHints EMPTY = new QueryHints(null, null, null, null, false);
+
+    final Boolean requestCache;
+    final String preference;
+    final String timeout;
+    final Integer terminateAfter;
+    final boolean profile;
+
+    private QueryHints(Boolean requestCache, String preference, String timeout, Integer terminateAfter,
+                       boolean profile) {
+        this.requestCache = requestCache;
+        this.preference = preference;
+        this.timeout = timeout;
+        this.terminateAfter = terminateAfter;
+        this.profile = profile;
+    }
+
+    /**
+     * 解析提示注释的内容
+     * @param warnings 不认识的提示加入警告
+     */
+    static QueryHints parse(String text, List<String> warnings) {
+        Boolean requestCache = null;
+        String preference = null;
+        String timeout = null;
+        Integer terminateAfter = null;
+        boolean profile = false;
+
+        int len = text.length();
+        int i = 0;
+        while (i < len) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c) || c == ',') {
+                i++;
+                continue;
+            }
+            if (!Character.isJavaIdentifierStart(c)) {
+                throw new UnsupportedOperationException("Invalid hint: " + text);
+            }
+            int end = i + 1;
+            while (end < len && Character.isJavaIdentifierPart(text.charAt(end))) {
+                end++;
+            }
+            String name = text.substring(i, end).toUpperCase();
+
+            // 可选的括号参数，字符串参数去掉引号
+            String argument = null;
+            int next = end;
+            while (next < len && Character.isWhitespace(text.charAt(next))) {
+                next++;
+            }
+            if (next < len && text.charAt(next) == '(') {
+                int close = text.indexOf(')', next);
+                if (close < 0) {
+                    throw new UnsupportedOperationException("Unclosed hint argument: " + name);
+                }
+                argument = unquote(text.substring(next + 1, close).trim());
+                end = close + 1;
+            }
+            i = end;
+
+            switch (name) {
+                case "REQUEST_CACHE":
+                    if (argument != null && !argument.equalsIgnoreCase("true")
+                            && !argument.equalsIgnoreCase("false")) {
+                        throw new UnsupportedOperationException("REQUEST_CACHE hint requires true or false");
+                    }
+                    requestCache = argument == null || Boolean.parseBoolean(argument);
+                    break;
+                case "PREFERENCE":
+                    if (argument == null || argument.isEmpty()) {
+                        throw new UnsupportedOperationException("PREFERENCE hint requires a value");
+                    }
+                    preference = argument;
+                    break;
+                case "TIMEOUT":
+                    if (argument == null || !argument.matches("[0-9]+(nanos|micros|ms|s|m|h|d)")) {
+                        throw new UnsupportedOperationException("TIMEOUT hint requires a time value such as '200ms'");
+                    }
+                    timeout = argument;
+                    break;
+                case "TERMINATE_AFTER":
+                    if (argument == null || !argument.matches("[0-9]{1,9}") || Integer.parseInt(argument) == 0) {
+                        throw new UnsupportedOperationException("TERMINATE_AFTER hint requires a positive integer");
+                    }
+                    terminateAfter = Integer.parseInt(argument);
+                    break;
+                case "PROFILE":
+                    profile = true;
+                    break;
+                default:
+                    warnings.add("Unknown hint " + name + " is ignored");
+            }
+        }
+        return new QueryHints(requestCache, preference, timeout, terminateAfter, profile);
+    }
+
+    private static String unquote(String argument) {
+        if (argument.length() >= 2 && (argument.charAt(0) == '\'' || argument.charAt(0) == '"')
+                && argument.charAt(argument.length() - 1) == argument.charAt(0)) {
+            return argument.substring(1, argument.length() - 1);
+        }
+        return argument;
+    }
+
+    /**
+     * _count不支持的提示，转换为_count请求时忽略
+     */
+    boolean hasSearchOnly() {
+        return requestCache != null || timeout != null || profile;
+    }
+
+    /**
+     * 请求参数：request_cache、preference，发送到_count时为preference和terminate_after
+     */
+    Map<String, String> requestParams(boolean countEndpoint) {
+        Map<String, String> params = new LinkedHashMap<>();
+        if (requestCache != null && !countEndpoint) {
+            params.put("request_cache", requestCache.toString());
+        }
+        if (preference != null) {
+            params.put("preference", preference);
+        }
+        if (countEndpoint && terminateAfter != null) {
+            params.put("terminate_after", terminateAfter.toString());
+        }
+        return params;
+    }
+
+    @Override
+    public String toString() {
+        return "QueryHints{requestCache=" + requestCache + ", preference=" + preference + ", timeout=" + timeout
+                + ", terminateAfter=" + terminateAfter + ", profile=" + profile + "}";
+    }
+}
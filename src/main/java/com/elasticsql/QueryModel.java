@@ -0,0 +1,449 @@
+package com.elasticsql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * SELECT语句的中间表示
+ *
+ * 由 {@link QueryModelBuilder} 从JSqlParser语法树构建一次，之后的条件改写和
+ * {@link DslBackend} 输出都基于这个结构，不再访问JSqlParser的对象或做字符串解析。
+ * 构建完成后不再修改（with方法返回副本），可以在多个线程间共享。
+ */
+final class QueryModel {
+    private final String index;
+    private final List<String> selectFields;
+    private final List<String> selectKeys;
+    private final List<String> projection;
+    private final List<Bucket> groupBy;
+    private final List<Metric> metrics;
+    private final Predicate.Value from;
+    private final Predicate.Value bucketFrom;
+    private final Predicate.Value bucketSize;
+    private final Having having;
+    private final QueryHints hints;
+    private final List<String> warnings;
+    private final List<Sort> sort;
+    private final Predicate.Value size;
+    private final Predicate where;
+    private final boolean literalDependent;
+    private final Map<String, Object> afterKey;
+    private final SearchAfter searchAfter;
+
+    QueryModel(String index, List<String> selectFields, List<String> selectKeys, List<String> projection,
+               Predicate where, List<Bucket> groupBy,
+               List<Metric> metrics, List<Sort> sort, Predicate.Value from, Predicate.Value size,
+               Predicate.Value bucketFrom, Predicate.Value bucketSize, Having having, List<String> warnings,
+               QueryHints hints) {
+        this(index, Collections.unmodifiableList(new ArrayList<>(selectFields)),
+                Collections.unmodifiableList(new ArrayList<>(selectKeys)),
+                projection == null ? null : Collections.unmodifiableList(new ArrayList<>(projection)),
+                where, Collections.unmodifiableList(new ArrayList<>(groupBy)),
+                Collections.unmodifiableList(new ArrayList<>(metrics)),
+                Collections.unmodifiableList(new ArrayList<>(sort)), from, size, bucketFrom, bucketSize, having,
+                Collections.unmodifiableList(new ArrayList<>(warnings)), hints, false, null, null);
+    }
+
+    /**
+     * 副本使用的构造方法，列表和映射已经是不可修改的副本
+     */
+    private QueryModel(String index, List<String> selectFields, List<String> selectKeys, List<String> projection,
+                       Predicate where, List<Bucket> groupBy, List<Metric> metrics, List<Sort> sort,
+                       Predicate.Value from, Predicate.Value size, Predicate.Value bucketFrom,
+                       Predicate.Value bucketSize, Having having, List<String> warnings, QueryHints hints,
+                       boolean literalDependent, Map<String, Object> afterKey, SearchAfter searchAfter) {
+        this.index = index;
+        this.selectFields = selectFields;
+        this.selectKeys = selectKeys;
+        this.projection = projection;
+        this.where = where;
+        this.groupBy = groupBy;
+        this.metrics = metrics;
+        this.sort = sort;
+        this.from = from;
+        this.size = size;
+        this.bucketFrom = bucketFrom;
+        this.bucketSize = bucketSize;
+        this.having = having;
+        this.warnings = warnings;
+        this.hints = hints;
+        this.literalDependent = literalDependent;
+        this.afterKey = afterKey;
+        this.searchAfter = searchAfter;
+    }
+
+    /**
+     * 返回替换了WHERE条件的副本
+     * @param literalDependent 改写后的条件是否依赖字面量的值
+     */
+    QueryModel withWhere(Predicate where, boolean literalDependent) {
+        return new QueryModel(index, selectFields, selectKeys, projection, where, groupBy, metrics, sort,
+                from, size, bucketFrom, bucketSize, having, warnings, hints, literalDependent, afterKey, searchAfter);
+    }
+
+    /**
+     * 返回从指定after_key之后开始的composite聚合分页副本
+     */
+    QueryModel withAfterKey(Map<String, Object> afterKey) {
+        return new QueryModel(index, selectFields, selectKeys, projection, where, groupBy, metrics, sort,
+                from, size, bucketFrom, bucketSize, having, warnings, hints, literalDependent,
+                afterKey == null ? null : Collections.unmodifiableMap(new LinkedHashMap<>(afterKey)), searchAfter);
+    }
+
+    /**
+     * 返回search_after分页的副本，不再输出from
+     * @param sort 追加了唯一排序字段的排序
+     * @param size 每页条数
+     */
+    QueryModel withSearchAfter(List<Sort> sort, Predicate.Value size, SearchAfter searchAfter) {
+        return new QueryModel(index, selectFields, selectKeys, projection, where, groupBy, metrics,
+                Collections.unmodifiableList(new ArrayList<>(sort)), from, size, bucketFrom, bucketSize, having,
+                warnings, hints, literalDependent, afterKey, searchAfter);
+    }
+
+    /**
+     * 返回追加了一条警告的副本
+     */
+    QueryModel withWarning(String warning) {
+        List<String> all = new ArrayList<>(warnings);
+        all.add(warning);
+        return new QueryModel(index, selectFields, selectKeys, projection, where, groupBy, metrics, sort,
+                from, size, bucketFrom, bucketSize, having, Collections.unmodifiableList(all), hints,
+                literalDependent, afterKey, searchAfter);
+    }
+
+    /**
+     * 返回按索引映射改写了字段和比较值的副本
+     */
+    QueryModel withSchema(Predicate where, List<Bucket> groupBy, List<Metric> metrics, List<Sort> sort) {
+        return new QueryModel(index, selectFields, selectKeys, projection, where,
+                Collections.unmodifiableList(new ArrayList<>(groupBy)),
+                Collections.unmodifiableList(new ArrayList<>(metrics)),
+                Collections.unmodifiableList(new ArrayList<>(sort)), from, size, bucketFrom, bucketSize, having,
+                warnings, hints, literalDependent, afterKey, searchAfter);
+    }
+
+    /**
+     * 目标索引
+     */
+    String getIndex() {
+        return index;
+    }
+
+    /**
+     * SELECT列表中的字段，有别名时为别名
+     */
+    List<String> getSelectFields() {
+        return selectFields;
+    }
+
+    /**
+     * SELECT列表中每一列的取值来源，与getSelectFields()一一对应：
+     * 字段为字段名（SELECT * 为 "*"），聚合函数为聚合名称，其他表达式为别名或表达式文本（与分桶名称一致）
+     */
+    List<String> getSelectKeys() {
+        return selectKeys;
+    }
+
+    /**
+     * 需要返回的文档字段，SELECT列表不全是字段（如SELECT *）时为null，返回完整文档
+     */
+    List<String> getProjection() {
+        return projection;
+    }
+
+    /**
+     * WHERE条件，没有WHERE子句时为null
+     */
+    Predicate getWhere() {
+        return where;
+    }
+
+    /**
+     * GROUP BY分桶
+     */
+    List<Bucket> getGroupBy() {
+        return groupBy;
+    }
+
+    /**
+     * SELECT列表中的聚合函数
+     */
+    List<Metric> getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * ORDER BY字段
+     */
+    List<Sort> getSort() {
+        return sort;
+    }
+
+    /**
+     * 分页起始位置，整数或参数占位标记
+     */
+    Predicate.Value getFrom() {
+        return from;
+    }
+
+    /**
+     * 返回条数，整数或参数占位标记
+     */
+    Predicate.Value getSize() {
+        return size;
+    }
+
+    /**
+     * 聚合查询LIMIT/OFFSET中的OFFSET，跳过的桶数，没有OFFSET时为null
+     */
+    Predicate.Value getBucketFrom() {
+        return bucketFrom;
+    }
+
+    /**
+     * 聚合查询LIMIT/OFFSET中的LIMIT，返回的桶数，没有LIMIT时为null
+     */
+    Predicate.Value getBucketSize() {
+        return bucketSize;
+    }
+
+    /**
+     * HAVING条件，没有HAVING子句时为null
+     */
+    Having getHaving() {
+        return having;
+    }
+
+    /**
+     * 构建时发现的性能问题
+     */
+    List<String> getWarnings() {
+        return warnings;
+    }
+
+    /**
+     * WHERE条件的改写是否依赖字面量的值
+     */
+    boolean isLiteralDependent() {
+        return literalDependent;
+    }
+
+    /**
+     * composite聚合分页的after_key，第一页为null
+     */
+    Map<String, Object> getAfterKey() {
+        return afterKey;
+    }
+
+    /**
+     * search_after分页参数，使用from/size分页时为null
+     */
+    SearchAfter getSearchAfter() {
+        return searchAfter;
+    }
+
+    /**
+     * SELECT之后的提示注释中的执行选项，没有提示时为 {@link QueryHints#EMPTY}
+     */
+    QueryHints getHints() {
+        return hints;
+    }
+
+    /**
+     * 是否为聚合查询
+     */
+    boolean isAggregation() {
+        return !metrics.isEmpty() || !groupBy.isEmpty();
+    }
+
+    /**
+     * 是否只统计命中数：没有GROUP BY，SELECT中只有COUNT(*)
+     */
+    boolean isCountOnly() {
+        if (!groupBy.isEmpty() || metrics.isEmpty() || metrics.size() != selectFields.size()) {
+            return false;
+        }
+        for (Metric metric : metrics) {
+            if (metric.field != null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 聚合函数
+     */
+    static final class Metric {
+        final String name;
+        final String function;
+        final String field;
+        final String argument;
+
+        /**
+         * @param name 聚合名称（别名），只在HAVING或ORDER BY中出现的聚合函数为函数文本
+         * @param function 小写的函数名，如count、sum
+         * @param field 字段，COUNT(*) 时为null
+         */
+        Metric(String name, String function, String field) {
+            this(name, function, field, null);
+        }
+
+        /**
+         * @param function 小写的函数名，如count、sum，COUNT(DISTINCT) 为cardinality，百分位数为percentile
+         * @param argument 函数的额外参数，如percentile的百分数，没有时为null
+         */
+        Metric(String name, String function, String field, String argument) {
+            this.name = name;
+            this.function = function;
+            this.field = field;
+            this.argument = argument;
+        }
+
+        /**
+         * 返回改为在指定字段上计算的副本
+         */
+        Metric withField(String field) {
+            return new Metric(name, function, field, argument);
+        }
+
+        @Override
+        public String toString() {
+            return name + "=" + function + "(" + (field == null ? "*" : field)
+                    + (argument == null ? "" : ", " + argument) + ")";
+        }
+    }
+
+    /**
+     * GROUP BY分桶
+     */
+    static final class Bucket {
+        static final String TERMS = "terms";
+        static final String DATE_HISTOGRAM = "date_histogram";
+        static final String HISTOGRAM = "histogram";
+
+        final String name;
+        final String field;
+        final String type;
+        final String interval;
+        final boolean calendar;
+        final String format;
+        final String timeZone;
+
+        /**
+         * 按字段的值分桶
+         * @param name 分桶名称，即SQL中的列名
+         * @param field 实际分桶的字段，如text字段的keyword子字段
+         */
+        Bucket(String name, String field) {
+            this(name, field, TERMS, null, false, null, null);
+        }
+
+        /**
+         * @param name 分桶名称，分桶函数在SELECT中有别名时为别名
+         * @param field 实际分桶的字段
+         * @param type 聚合类型：terms、date_histogram或histogram
+         * @param interval 间隔，如 hour、5m、10，terms时为null
+         * @param calendar date_histogram是否使用calendar_interval，否则使用fixed_interval
+         * @param format date_histogram的key_as_string格式，不需要时为null
+         * @param timeZone date_histogram的时区，为null时使用配置中的时区
+         */
+        Bucket(String name, String field, String type, String interval, boolean calendar, String format,
+               String timeZone) {
+            this.name = name;
+            this.field = field;
+            this.type = type;
+            this.interval = interval;
+            this.calendar = calendar;
+            this.format = format;
+            this.timeZone = timeZone;
+        }
+
+        /**
+         * 返回改为在指定字段上分桶的副本
+         */
+        Bucket withField(String field) {
+            return new Bucket(name, field, type, interval, calendar, format, timeZone);
+        }
+
+        boolean isTerms() {
+            return type.equals(TERMS);
+        }
+
+        @Override
+        public String toString() {
+            String source = isTerms() ? field : type + "(" + field + ", " + interval + ")";
+            return name.equals(source) ? name : name + "=" + source;
+        }
+    }
+
+    /**
+     * 排序字段
+     */
+    static final class Sort {
+        final String field;
+        final boolean asc;
+
+        Sort(String field, boolean asc) {
+            this.field = field;
+            this.asc = asc;
+        }
+
+        @Override
+        public String toString() {
+            return field + (asc ? " asc" : " desc");
+        }
+    }
+
+    /**
+     * search_after分页参数
+     */
+    static final class SearchAfter {
+        final List<Object> values;
+        final String pitId;
+        final String keepAlive;
+
+        /**
+         * @param values 上一页最后一条结果的sort值，第一页为null
+         * @param pitId PIT的id，不使用PIT时为null
+         * @param keepAlive PIT的保持时间
+         */
+        SearchAfter(List<Object> values, String pitId, String keepAlive) {
+            this.values = values == null ? null : Collections.unmodifiableList(new ArrayList<>(values));
+            this.pitId = pitId;
+            this.keepAlive = keepAlive;
+        }
+    }
+
+    /**
+     * HAVING条件，对应bucket_selector的脚本
+     *
+     * 脚本中聚合函数的值为 params.v0、params.v1 ...，由bucketsPath给出对应的聚合名称；
+     * 比较的常量为 params.p0、params.p1 ...，脚本文本与常量的值无关。
+     */
+    static final class Having {
+        final String script;
+        final Map<String, String> bucketsPath;
+        final Map<String, Predicate.Value> params;
+
+        /**
+         * @param script painless脚本
+         * @param bucketsPath 脚本变量 -> 聚合名称（构建时）或桶内的取值路径（编译后）
+         * @param params 脚本常量 -> 数字或参数占位标记
+         */
+        Having(String script, Map<String, String> bucketsPath, Map<String, Predicate.Value> params) {
+            this.script = script;
+            this.bucketsPath = Collections.unmodifiableMap(new LinkedHashMap<>(bucketsPath));
+            this.params = Collections.unmodifiableMap(new LinkedHashMap<>(params));
+        }
+
+        @Override
+        public String toString() {
+            return script + " " + bucketsPath;
+        }
+    }
+}
@@ -0,0 +1,836 @@
+package com.elasticsql;
+
+import net.sf.jsqlparser.expression.Alias;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.DateTimeLiteralExpression;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.ExpressionVisitorAdapter;
+import net.sf.jsqlparser.expression.Function;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.NotExpression;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.SignedExpression;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.*;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.statement.select.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 从JSqlParser语法树构建 {@link QueryModel}
+ *
+ * 通过ExpressionVisitor和SelectItemVisitor遍历语法树一次，
+ * 字段名、函数名和字面量直接从节点中读取。
+ */
+final class QueryModelBuilder {
+    private static final Set<String> AGGREGATE_FUNCTIONS = new HashSet<>(Arrays.asList(
+            "COUNT", "SUM", "AVG", "MAX", "MIN",
+            "STDDEV", "STDDEV_POP", "STDDEV_SAMP", "VARIANCE", "VAR_POP", "VAR_SAMP",
+            "APPROX_COUNT_DISTINCT", "PERCENTILE_APPROX", "PERCENTILE", "MEDIAN"));
+
+    private QueryModelBuilder() {
+    }
+
+    /**
+     * 构建中间表示
+     */
+    static QueryModel build(PlainSelect plainSelect, ConverterConfig config) {
+        String index = SelectHandler.getTableName(plainSelect.getFromItem());
+
+        // 处理SELECT列表
+        SelectItemCollector collector = new SelectItemCollector();
+        for (SelectItem<?> item : plainSelect.getSelectItems()) {
+            item.accept(collector);
+        }
+
+        // 处理GROUP BY子句，分桶函数以SELECT中的别名命名，GROUP BY也可以直接引用该别名
+        List<QueryModel.Bucket> groupBy = new ArrayList<>();
+        Map<String, String> bucketNames = new HashMap<>();
+        GroupByElement groupByElement = plainSelect.getGroupBy();
+        if (groupByElement != null && groupByElement.getGroupByExpressionList() != null) {
+            for (Object item : groupByElement.getGroupByExpressionList()) {
+                Expression expr = (Expression) item;
+                String alias = collector.functionNames.get(expr.toString());
+                if (expr instanceof Column && collector.functionAliases.containsKey(fieldName(expr))) {
+                    alias = fieldName(expr);
+                    expr = collector.functionAliases.get(alias);
+                }
+                QueryModel.Bucket bucket;
+                if (expr instanceof Function) {
+                    bucket = BucketFunctions.bucket((Function) expr, alias != null ? alias : expr.toString());
+                } else {
+                    String field = fieldName(expr);
+                    bucket = new QueryModel.Bucket(field, field);
+                }
+                groupBy.add(bucket);
+                bucketNames.put(expr.toString(), bucket.name);
+            }
+        }
+
+        // 处理WHERE条件
+        Predicate where = null;
+        List<String> warnings = new ArrayList<>();
+        if (plainSelect.getWhere() != null) {
+            where = new PredicateBuilder(config, warnings).build(plainSelect.getWhere());
+        }
+
+        // 处理HAVING子句，只在HAVING中出现的聚合函数也需要计算
+        QueryModel.Having having = null;
+        if (plainSelect.getHaving() != null) {
+            if (groupBy.isEmpty()) {
+                throw new UnsupportedOperationException("HAVING requires a GROUP BY clause");
+            }
+            having = new HavingBuilder(collector.metrics).build(plainSelect.getHaving());
+        }
+
+        // 处理ORDER BY子句，聚合查询中的聚合函数按聚合名称排序
+        boolean aggregation = !collector.metrics.isEmpty() || !groupBy.isEmpty();
+        List<QueryModel.Sort> sort = new ArrayList<>();
+        if (plainSelect.getOrderByElements() != null) {
+            for (OrderByElement orderByElement : plainSelect.getOrderByElements()) {
+                Expression expr = orderByElement.getExpression();
+                String field = expr.toString();
+                QueryModel.Metric metric = aggregation && expr instanceof Function
+                        ? metric((Function) expr, null) : null;
+                if (metric != null) {
+                    field = resolveMetric(collector.metrics, metric).name;
+                } else if (aggregation) {
+                    field = bucketNames.getOrDefault(expr.toString(), fieldName(expr));
+                }
+                sort.add(new QueryModel.Sort(field, orderByElement.isAsc()));
+            }
+        }
+
+        // 处理LIMIT子句，聚合查询不返回文档，LIMIT/OFFSET作用于桶
+        Predicate.Value from = integerValue(null, 0);
+        Predicate.Value size = integerValue(null, aggregation ? 0 : 1);
+        Predicate.Value bucketFrom = null;
+        Predicate.Value bucketSize = null;
+        if (plainSelect.getLimit() != null) {
+            Predicate.Value offset = null;
+            if (plainSelect.getOffset() != null) {
+                offset = integerValue(plainSelect.getOffset().getOffset(), 0);
+            }
+            Predicate.Value limit = integerValue(plainSelect.getLimit().getRowCount(), 0);
+            if (aggregation) {
+                bucketFrom = offset;
+                bucketSize = limit;
+            } else {
+                from = offset != null ? offset : from;
+                size = limit;
+            }
+        }
+        if (groupBy.size() > 1 && (!sort.isEmpty() || bucketSize != null)) {
+            warnings.add("ORDER BY and LIMIT are only pushed down for a single GROUP BY column, "
+                    + "the nested terms aggregations return their default number of buckets");
+        } else if (!groupBy.isEmpty() && config.getGroupByMode() == GroupByMode.COMPOSITE
+                && (!sort.isEmpty() || bucketSize != null)) {
+            warnings.add("ORDER BY and LIMIT are ignored in composite GROUP BY mode");
+        }
+
+        // 处理提示注释
+        QueryHints hints = plainSelect.getOracleHint() == null
+                ? QueryHints.EMPTY : QueryHints.parse(plainSelect.getOracleHint().getValue(), warnings);
+
+        List<String> projection = collector.projectAll ? null : new ArrayList<>(collector.projection);
+        QueryModel model = new QueryModel(index, collector.selectFields, collector.selectKeys, projection, where,
+                groupBy, new ArrayList<>(collector.metrics.values()), sort, from, size, bucketFrom, bucketSize, having,
+                warnings, hints);
+        if (model.isCountOnly() && config.isCountEndpoint() && hints.hasSearchOnly()) {
+            model = model.withWarning("REQUEST_CACHE, TIMEOUT and PROFILE hints are ignored by the _count endpoint");
+        }
+        return model;
+    }
+
+    /**
+     * 获取比较值，参数占位符转换为预编译模板的槽位标记，按绑定值的类型输出
+     * 只接受字面量，字段、函数和运算表达式无法写成查询的值；数字字面量写为JSON数字，字符串写为JSON字符串
+     */
+    static Predicate.Value comparisonValue(Expression expr) {
+        if (PreparedQuery.isParameter(expr)) {
+            return Predicate.Value.parameter(PreparedQuery.typedMarker(expr));
+        }
+        if (expr instanceof LongValue) {
+            return Predicate.Value.numeric(new BigDecimal(((LongValue) expr).getBigIntegerValue()));
+        }
+        if (expr instanceof DoubleValue) {
+            return Predicate.Value.numeric(BigDecimal.valueOf(((DoubleValue) expr).getValue()));
+        }
+        if (expr instanceof SignedExpression) {
+            SignedExpression signed = (SignedExpression) expr;
+            Predicate.Value value = signed.getExpression() instanceof SignedExpression
+                    || signed.getExpression() instanceof LongValue || signed.getExpression() instanceof DoubleValue
+                    ? comparisonValue(signed.getExpression()) : null;
+            if (value != null && signed.getSign() == '-') {
+                return Predicate.Value.numeric(value.getNumber().negate());
+            }
+            if (value != null && signed.getSign() == '+') {
+                return value;
+            }
+        }
+        if (expr instanceof StringValue) {
+            // 引号内的内容，连续两个引号还原为一个
+            return Predicate.Value.literal(((StringValue) expr).getNotExcapedValue());
+        }
+        if (expr instanceof DateTimeLiteralExpression) {
+            // DATE '2024-01-01' 等字面量按字符串交给字段的format解析
+            String value = ((DateTimeLiteralExpression) expr).getValue();
+            return Predicate.Value.literal(value.substring(1, value.length() - 1));
+        }
+        if (expr instanceof Column && ((Column) expr).getTable() == null
+                && PreparedQuery.isBoolean(((Column) expr).getColumnName())) {
+            // TRUE/FALSE 被解析为列名
+            return Predicate.Value.literal(((Column) expr).getColumnName().toLowerCase());
+        }
+        throw new UnsupportedOperationException("Comparison values must be literals or parameters, found: " + expr);
+    }
+
+    /**
+     * 获取LIMIT/OFFSET的整数值，参数占位符转换为预编译模板的槽位标记
+     */
+    private static Predicate.Value integerValue(Expression expr, int defaultValue) {
+        if (expr == null) {
+            return Predicate.Value.number(String.valueOf(defaultValue));
+        }
+        if (PreparedQuery.isParameter(expr)) {
+            return Predicate.Value.parameter(PreparedQuery.integerMarker(expr));
+        }
+        return Predicate.Value.number(String.valueOf(Integer.parseInt(expr.toString())));
+    }
+
+    /**
+     * 把聚合函数转换为Metric，不是聚合函数时返回null
+     * @param alias 别名，为null时以小写的函数文本命名，如 count(*)、sum(amount)
+     */
+    private static QueryModel.Metric metric(Function function, Alias alias) {
+        if (!AGGREGATE_FUNCTIONS.contains(function.getName().toUpperCase())) {
+            return null;
+        }
+        String name = function.getName().toLowerCase();
+        List<?> parameters = function.getParameters() == null ? Collections.emptyList() : function.getParameters();
+        Expression parameter = parameters.isEmpty() ? null : (Expression) parameters.get(0);
+
+        String field;
+        String parameterText;
+        if (parameter == null || parameter instanceof AllColumns) {
+            field = null;
+            parameterText = "*";
+        } else if (name.equals("count") && parameter instanceof LongValue) {
+            // COUNT(1) 等同于 COUNT(*)
+            field = null;
+            parameterText = parameter.toString();
+        } else {
+            field = fieldName(parameter);
+            parameterText = parameter.toString();
+        }
+
+        // 去重计数和百分位数使用近似算法，在分片上以固定内存计算
+        String metricFunction = name;
+        String argument = null;
+        if (function.isDistinct()) {
+            if (!name.equals("count") || field == null) {
+                throw new UnsupportedOperationException("DISTINCT is only supported as COUNT(DISTINCT field)");
+            }
+            metricFunction = "cardinality";
+            parameterText = "distinct " + parameterText;
+        } else if (name.equals("approx_count_distinct")) {
+            metricFunction = "cardinality";
+        } else if (name.equals("median")) {
+            metricFunction = "percentile";
+            argument = "50";
+        } else if (name.equals("percentile_approx") || name.equals("percentile")) {
+            // 第三个参数（精度）不使用，由ConverterConfig中的percentiles设置决定
+            if (parameters.size() < 2 || parameters.size() > 3) {
+                throw new UnsupportedOperationException(function.getName() + " requires a field and a percentile");
+            }
+            metricFunction = "percentile";
+            argument = percent((Expression) parameters.get(1));
+            parameterText = parameterText + ", " + parameters.get(1);
+        }
+        if (field == null && !metricFunction.equals(name)) {
+            throw new UnsupportedOperationException(function.getName() + " requires a field");
+        }
+
+        String metricName = alias != null ? alias.getName() : name + "(" + parameterText.toLowerCase() + ")";
+        return new QueryModel.Metric(metricName, metricFunction, field, argument);
+    }
+
+    /**
+     * 百分位数参数，不大于1时按比例（0.95）处理，否则按百分数（95）处理
+     */
+    private static String percent(Expression expr) {
+        if (!(expr instanceof LongValue || expr instanceof DoubleValue)) {
+            throw new UnsupportedOperationException("Percentiles must be numeric literals, found: " + expr);
+        }
+        BigDecimal value = new BigDecimal(expr.toString());
+        if (value.compareTo(BigDecimal.ONE) <= 0) {
+            value = value.movePointRight(2);
+        }
+        if (value.signum() < 0 || value.compareTo(BigDecimal.valueOf(100)) > 0) {
+            throw new UnsupportedOperationException("Percentile out of range: " + expr);
+        }
+        return value.stripTrailingZeros().toPlainString();
+    }
+
+    /**
+     * 查找SELECT列表中相同的聚合函数，没有时作为不输出的聚合加入
+     */
+    private static QueryModel.Metric resolveMetric(Map<String, QueryModel.Metric> metrics,
+                                                   QueryModel.Metric metric) {
+        for (QueryModel.Metric existing : metrics.values()) {
+            if (existing.function.equals(metric.function) && Objects.equals(existing.field, metric.field)
+                    && Objects.equals(existing.argument, metric.argument)) {
+                return existing;
+            }
+        }
+        metrics.put(metric.name, metric);
+        return metric;
+    }
+
+    /**
+     * 字段名，列引用去掉表名前缀
+     */
+    private static String fieldName(Expression expr) {
+        if (expr instanceof Column) {
+            return ((Column) expr).getColumnName();
+        }
+        return expr.toString();
+    }
+
+    /**
+     * 收集SELECT列表中的字段和聚合函数
+     */
+    private static final class SelectItemCollector extends ExpressionVisitorAdapter {
+        final List<String> selectFields = new ArrayList<>();
+        /**
+         * 每一列的取值来源，见 {@link QueryModel#getSelectKeys()}
+         */
+        final List<String> selectKeys = new ArrayList<>();
+        /**
+         * SELECT列表中直接引用的字段，有非字段的SELECT项时projectAll为true
+         */
+        final Set<String> projection = new LinkedHashSet<>();
+        boolean projectAll;
+        /**
+         * SELECT中带别名的函数：别名 -> 函数表达式
+         */
+        final Map<String, Expression> functionAliases = new HashMap<>();
+        /**
+         * 带别名的函数文本 -> 别名
+         */
+        final Map<String, String> functionNames = new HashMap<>();
+        /**
+         * 聚合名称 -> 聚合函数，同名时后出现的覆盖先出现的
+         */
+        final Map<String, QueryModel.Metric> metrics = new LinkedHashMap<>();
+        private SelectItem<?> current;
+
+        @Override
+        public void visit(SelectItem item) {
+            current = item;
+            Alias alias = item.getAlias();
+            selectFields.add(alias != null ? alias.getName() : item.getExpression().toString());
+            if (alias != null && item.getExpression() instanceof Function) {
+                functionAliases.put(alias.getName(), item.getExpression());
+                functionNames.put(item.getExpression().toString(), alias.getName());
+            }
+            if (item.getExpression() instanceof Column) {
+                selectKeys.add(fieldName(item.getExpression()));
+                projection.add(fieldName(item.getExpression()));
+            } else {
+                // *、t.* 和表达式需要完整文档
+                selectKeys.add(alias != null ? alias.getName() : item.getExpression().toString());
+                projectAll = true;
+            }
+            item.getExpression().accept(this);
+        }
+
+        @Override
+        public void visit(Function function) {
+            // 只识别SELECT项本身的聚合函数，不进入函数参数
+            if (current == null || current.getExpression() != function) {
+                return;
+            }
+            QueryModel.Metric metric = metric(function, current.getAlias());
+            if (metric != null) {
+                metrics.put(metric.name, metric);
+                selectKeys.set(selectKeys.size() - 1, metric.name);
+            }
+        }
+    }
+
+    /**
+     * 将HAVING表达式转换为bucket_selector脚本
+     *
+     * 聚合函数和聚合别名转换为buckets_path变量，数字和参数占位符转换为脚本参数，
+     * 与WHERE不同，无法转换的条件直接报错，不能按全部满足处理。
+     */
+    private static final class HavingBuilder extends ExpressionVisitorAdapter {
+        private final Map<String, QueryModel.Metric> metrics;
+        private final Map<String, String> bucketsPath = new LinkedHashMap<>();
+        private final Map<String, Predicate.Value> params = new LinkedHashMap<>();
+        private Expression current;
+        private String result;
+
+        HavingBuilder(Map<String, QueryModel.Metric> metrics) {
+            this.metrics = metrics;
+        }
+
+        QueryModel.Having build(Expression expr) {
+            return new QueryModel.Having(script(expr), bucketsPath, params);
+        }
+
+        private String script(Expression expr) {
+            Expression savedCurrent = current;
+            String savedResult = result;
+            current = expr;
+            result = null;
+            expr.accept(this);
+            String built = result;
+            current = savedCurrent;
+            result = savedResult;
+            if (built == null) {
+                throw new UnsupportedOperationException("Unsupported HAVING condition: " + expr);
+            }
+            return built;
+        }
+
+        @Override
+        public void visit(Parenthesis parenthesis) {
+            if (parenthesis == current) {
+                result = "(" + script(parenthesis.getExpression()) + ")";
+            }
+        }
+
+        @Override
+        public void visit(AndExpression expr) {
+            if (expr == current) {
+                result = script(expr.getLeftExpression()) + " && " + script(expr.getRightExpression());
+            }
+        }
+
+        @Override
+        public void visit(OrExpression expr) {
+            if (expr == current) {
+                result = script(expr.getLeftExpression()) + " || " + script(expr.getRightExpression());
+            }
+        }
+
+        @Override
+        public void visit(NotExpression expr) {
+            if (expr == current) {
+                result = "!(" + script(expr.getExpression()) + ")";
+            }
+        }
+
+        @Override
+        public void visit(EqualsTo expr) {
+            comparison(expr, "==");
+        }
+
+        @Override
+        public void visit(NotEqualsTo expr) {
+            comparison(expr, "!=");
+        }
+
+        @Override
+        public void visit(GreaterThan expr) {
+            comparison(expr, ">");
+        }
+
+        @Override
+        public void visit(GreaterThanEquals expr) {
+            comparison(expr, ">=");
+        }
+
+        @Override
+        public void visit(MinorThan expr) {
+            comparison(expr, "<");
+        }
+
+        @Override
+        public void visit(MinorThanEquals expr) {
+            comparison(expr, "<=");
+        }
+
+        private void comparison(BinaryExpression expr, String operator) {
+            if (expr == current) {
+                result = operand(expr.getLeftExpression()) + " " + operator + " " + operand(expr.getRightExpression());
+            }
+        }
+
+        /**
+         * 比较的一侧：聚合函数或聚合别名转换为变量，数字和参数占位符转换为脚本参数
+         */
+        private String operand(Expression expr) {
+            if (expr instanceof Function) {
+                QueryModel.Metric metric = metric((Function) expr, null);
+                if (metric != null) {
+                    return variable(resolveMetric(metrics, metric).name);
+                }
+            } else if (expr instanceof Column && metrics.containsKey(((Column) expr).getColumnName())) {
+                return variable(((Column) expr).getColumnName());
+            } else if (expr instanceof LongValue || expr instanceof DoubleValue || PreparedQuery.isParameter(expr)) {
+                String name = "p" + params.size();
+                params.put(name, comparisonValue(expr).withKind(Predicate.Kind.NUMBER));
+                return "params." + name;
+            }
+            throw new UnsupportedOperationException(
+                    "HAVING may only compare aggregates with numbers, found: " + expr);
+        }
+
+        /**
+         * 聚合对应的脚本变量，同一聚合多次出现时使用同一个变量
+         */
+        private String variable(String metricName) {
+            for (Map.Entry<String, String> entry : bucketsPath.entrySet()) {
+                if (entry.getValue().equals(metricName)) {
+                    return "params." + entry.getKey();
+                }
+            }
+            String name = "v" + bucketsPath.size();
+            bucketsPath.put(name, metricName);
+            return "params." + name;
+        }
+    }
+
+    /**
+     * 将WHERE表达式转换为条件树，无法转换的条件抛出UnsupportedOperationException，
+     * 不会被静默丢弃
+     *
+     * 父类会继续访问不支持的节点的子节点，这里只处理正在构建的节点本身，
+     * 避免子节点的结果被当作外层节点的结果。
+     */
+    private static final class PredicateBuilder extends ExpressionVisitorAdapter {
+        private final ConverterConfig config;
+        private final List<String> warnings;
+        private Expression current;
+        private Predicate result;
+
+        PredicateBuilder(ConverterConfig config, List<String> warnings) {
+            this.config = config;
+            this.warnings = warnings;
+        }
+
+        Predicate build(Expression expr) {
+            Expression savedCurrent = current;
+            Predicate savedResult = result;
+            current = expr;
+            result = null;
+            expr.accept(this);
+            Predicate built = result;
+            current = savedCurrent;
+            result = savedResult;
+            if (built == null) {
+                throw new UnsupportedOperationException("Unsupported WHERE condition: " + expr);
+            }
+            return built;
+        }
+
+        @Override
+        public void visit(Parenthesis parenthesis) {
+            if (parenthesis == current) {
+                result = build(parenthesis.getExpression());
+            }
+        }
+
+        @Override
+        public void visit(AndExpression expr) {
+            if (expr == current) {
+                result = new Predicate.And(chain(expr, AndExpression.class));
+            }
+        }
+
+        @Override
+        public void visit(OrExpression expr) {
+            if (expr == current) {
+                result = new Predicate.Or(chain(expr, OrExpression.class));
+            }
+        }
+
+        /**
+         * 展开同一运算符连接的条件链，JSqlParser把 a OR b OR c 解析为左深的树，
+         * 沿左侧逐层展开，长的条件链不会随长度递归
+         */
+        private List<Predicate> chain(BinaryExpression expr, Class<? extends BinaryExpression> type) {
+            Deque<Expression> operands = new ArrayDeque<>();
+            Expression node = expr;
+            while (type.isInstance(node)) {
+                operands.push(((BinaryExpression) node).getRightExpression());
+                node = ((BinaryExpression) node).getLeftExpression();
+            }
+            operands.push(node);
+
+            List<Predicate> predicates = new ArrayList<>(operands.size());
+            for (Expression operand : operands) {
+                predicates.add(build(operand));
+            }
+            return predicates;
+        }
+
+        @Override
+        public void visit(NotExpression expr) {
+            if (expr == current) {
+                result = new Predicate.Not(build(expr.getExpression()));
+            }
+        }
+
+        @Override
+        public void visit(EqualsTo expr) {
+            if (expr == current) {
+                result = comparison(expr, "=");
+            }
+        }
+
+        @Override
+        public void visit(NotEqualsTo expr) {
+            if (expr == current) {
+                result = new Predicate.Not(comparison(expr, "="));
+            }
+        }
+
+        @Override
+        public void visit(GreaterThan expr) {
+            if (expr == current) {
+                result = comparison(expr, ">");
+            }
+        }
+
+        @Override
+        public void visit(GreaterThanEquals expr) {
+            if (expr == current) {
+                result = comparison(expr, ">=");
+            }
+        }
+
+        @Override
+        public void visit(MinorThan expr) {
+            if (expr == current) {
+                result = comparison(expr, "<");
+            }
+        }
+
+        @Override
+        public void visit(MinorThanEquals expr) {
+            if (expr == current) {
+                result = comparison(expr, "<=");
+            }
+        }
+
+        /**
+         * 字段与字面量的比较，字面量在左边时交换两边，例如 5 < a 等同于 a > 5
+         * @param operator 字段在左边时的运算符
+         */
+        private static Predicate comparison(ComparisonOperator expr, String operator) {
+            Expression left = expr.getLeftExpression();
+            Expression right = expr.getRightExpression();
+            if (!(left instanceof Column) && right instanceof Column && !isBooleanLiteral(right)) {
+                left = right;
+                right = expr.getLeftExpression();
+                operator = operator.replace('<', '#').replace('>', '<').replace('#', '>');
+            }
+            String field = leftField(left);
+            if (right instanceof Column && !isBooleanLiteral(right)) {
+                throw new UnsupportedOperationException("Comparing two fields is not supported: " + expr);
+            }
+            Predicate.Value value = comparisonValue(right);
+            switch (operator) {
+                case "=":
+                    return new Predicate.Term(field, value);
+                case ">":
+                    return new Predicate.Range(field, value, false, null, false);
+                case ">=":
+                    return new Predicate.Range(field, value, true, null, false);
+                case "<":
+                    return new Predicate.Range(field, null, false, value, false);
+                default:
+                    return new Predicate.Range(field, null, false, value, true);
+            }
+        }
+
+        private static boolean isBooleanLiteral(Expression expr) {
+            return expr instanceof Column && ((Column) expr).getTable() == null
+                    && PreparedQuery.isBoolean(((Column) expr).getColumnName());
+        }
+
+        @Override
+        public void visit(InExpression expr) {
+            if (expr != current) {
+                return;
+            }
+            if (PreparedQuery.isParameter(expr.getLeftExpression())) {
+                throw new UnsupportedOperationException("Parameters are not supported on the left side of IN");
+            }
+            String field = leftField(expr.getLeftExpression());
+            Expression right = expr.getRightExpression();
+
+            Predicate in;
+            if (right instanceof ParenthesedSelect) {
+                in = termsLookup(field, (ParenthesedSelect) right);
+            } else if (right instanceof ExpressionList) {
+                List<?> expressions = (ExpressionList<?>) right;
+                List<Predicate.Value> values = new ArrayList<>(expressions.size());
+                for (Object value : expressions) {
+                    values.add(comparisonValue((Expression) value));
+                }
+                in = values.size() == 1 ? new Predicate.Term(field, values.get(0)) : new Predicate.Terms(field, values);
+            } else {
+                throw new UnsupportedOperationException("Unsupported IN list: " + right);
+            }
+            result = expr.isNot() ? new Predicate.Not(in) : in;
+        }
+
+        /**
+         * IN子查询转换为terms lookup，只支持 SELECT path FROM index WHERE _id = 'id' 的形式
+         */
+        private static Predicate termsLookup(String field, ParenthesedSelect subquery) {
+            PlainSelect select = subquery.getPlainSelect();
+            if (select != null && select.getSelectItems().size() == 1
+                    && select.getSelectItems().get(0).getExpression() instanceof Column
+                    && select.getWhere() instanceof EqualsTo) {
+                EqualsTo where = (EqualsTo) select.getWhere();
+                if (where.getLeftExpression() instanceof Column
+                        && ((Column) where.getLeftExpression()).getColumnName().equals("_id")) {
+                    return new Predicate.TermsLookup(field, SelectHandler.getTableName(select.getFromItem()),
+                            comparisonValue(where.getRightExpression()),
+                            fieldName(select.getSelectItems().get(0).getExpression()));
+                }
+            }
+            throw new UnsupportedOperationException(
+                    "IN subqueries must have the form (SELECT path FROM index WHERE _id = 'id')");
+        }
+
+        @Override
+        public void visit(Between expr) {
+            if (expr == current) {
+                Predicate range = new Predicate.Range(leftField(expr.getLeftExpression()),
+                        comparisonValue(expr.getBetweenExpressionStart()), true,
+                        comparisonValue(expr.getBetweenExpressionEnd()), true);
+                result = expr.isNot() ? new Predicate.Not(range) : range;
+            }
+        }
+
+        @Override
+        public void visit(IsNullExpression expr) {
+            if (expr == current) {
+                Predicate exists = new Predicate.Exists(leftField(expr.getLeftExpression()));
+                result = expr.isNot() ? exists : new Predicate.Not(exists);
+            }
+        }
+
+        @Override
+        public void visit(LikeExpression expr) {
+            if (expr != current) {
+                return;
+            }
+            LikeExpression.KeyWord keyWord = expr.getLikeKeyWord();
+            if (keyWord != null && keyWord != LikeExpression.KeyWord.LIKE && keyWord != LikeExpression.KeyWord.ILIKE) {
+                throw new UnsupportedOperationException(keyWord + " is not supported");
+            }
+            if (!(expr.getRightExpression() instanceof StringValue)) {
+                throw new UnsupportedOperationException("LIKE patterns must be string literals");
+            }
+            char escape = '\\';
+            if (expr.getEscape() instanceof StringValue && !((StringValue) expr.getEscape()).getValue().isEmpty()) {
+                escape = ((StringValue) expr.getEscape()).getNotExcapedValue().charAt(0);
+            }
+
+            Predicate like = like(leftField(expr.getLeftExpression()),
+                    ((StringValue) expr.getRightExpression()).getNotExcapedValue(), escape,
+                    keyWord == LikeExpression.KeyWord.ILIKE);
+            result = expr.isNot() ? new Predicate.Not(like) : like;
+        }
+
+        /**
+         * 按LIKE模式的形状选择代价最小的查询：没有通配符时用term，只有结尾的%时用prefix，
+         * 只有开头的%且配置了倒序子字段时用倒序子字段上的prefix，其余情况用wildcard
+         */
+        private Predicate like(String field, String pattern, char escape, boolean caseInsensitive) {
+            int length = pattern.length();
+            StringBuilder literal = new StringBuilder(length);
+            StringBuilder wildcard = new StringBuilder(length + 4);
+            boolean leadingAny = false;
+            boolean leadingWildcard = false;
+            boolean trailingAny = false;
+            boolean single = false;
+            boolean inner = false;
+            for (int i = 0; i < length; i++) {
+                char c = pattern.charAt(i);
+                if (c == '%' || c == '_') {
+                    leadingWildcard |= i == 0;
+                    if (c == '_') {
+                        single = true;
+                    } else if (literal.length() == 0) {
+                        leadingAny = true;
+                    } else {
+                        trailingAny = true;
+                    }
+                    wildcard.append(c == '%' ? '*' : '?');
+                    continue;
+                }
+                if (c == escape && i + 1 < length) {
+                    c = pattern.charAt(++i);
+                }
+                // 字面量出现在结尾的%之后，说明%在中间
+                inner |= trailingAny;
+                literal.append(c);
+                if (c == '*' || c == '?' || c == '\\') {
+                    wildcard.append('\\');
+                }
+                wildcard.append(c);
+            }
+
+            if (!leadingAny && !trailingAny && !single && !caseInsensitive) {
+                return new Predicate.Term(field, Predicate.Value.literal(literal.toString()));
+            }
+            if (!single && !inner) {
+                if (literal.length() == 0) {
+                    // LIKE '%' 匹配所有非空值
+                    return new Predicate.Exists(field);
+                }
+                if (!leadingAny && trailingAny) {
+                    return new Predicate.Prefix(field, literal.toString(), caseInsensitive);
+                }
+                if (leadingAny && !trailingAny && config.getReverseFieldSuffix() != null) {
+                    return new Predicate.Prefix(field + config.getReverseFieldSuffix(),
+                            literal.reverse().toString(), caseInsensitive);
+                }
+            }
+            if (leadingWildcard) {
+                warnings.add("LIKE '" + pattern + "' on " + field
+                        + " starts with a wildcard and scans every term of the field");
+            }
+            return new Predicate.Wildcard(field, wildcard.toString(), caseInsensitive);
+        }
+
+        /**
+         * 条件中的字段，只接受列名，函数和运算表达式无法在查询中求值
+         */
+        private static String leftField(Expression expr) {
+            if (PreparedQuery.isParameter(expr)) {
+                throw new UnsupportedOperationException("Parameters are only supported on the right side of comparisons");
+            }
+            if (!(expr instanceof Column) || isBooleanLiteral(expr)) {
+                throw new UnsupportedOperationException("Conditions must compare a field with a value, found: " + expr);
+            }
+            return expr.toString();
+        }
+    }
+}
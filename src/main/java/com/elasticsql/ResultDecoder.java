@@ -0,0 +1,416 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * 把Elasticsearch响应流式转换为SQL结果行
+ *
+ * 由转换结果或分页游标提供，列名与SELECT列表一致（有别名时为别名）。响应按token顺序读取，
+ * 每读完一个命中文档或最内层的桶就交给回调一行，不把整个响应解析为树，
+ * 大响应的内存占用与单个文档或单个桶的大小相关。
+ * 多个GROUP BY字段的terms聚合按最内层的桶输出，外层桶的键填入对应的列；
+ * composite聚合按每个桶输出；没有GROUP BY的聚合在读完响应后输出一行。
+ * SELECT * 时每行为展开后的 _source，嵌套对象的字段名使用点号连接的完整路径。
+ *
+ * 只适用于默认的Elasticsearch后端生成的DSL。实例不可变，可以在多个线程间共享。
+ *
+ * <pre>
+ * ConversionResult result = ElasticSqlConverter.convertToResult(sql);
+ * try (InputStream response = search(result.getIndex(), result.getDsl())) {
+ *     result.getDecoder().decode(response, row -&gt; System.out.println(row.get("name")));
+ * }
+ * </pre>
+ */
+public final class ResultDecoder {
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /**
+     * 命中文档中可以直接选择的元数据字段
+     */
+    private static final List<String> META_FIELDS = Arrays.asList("_id", "_index", "_score");
+
+    private final QueryModel model;
+    private final ConverterConfig config;
+
+    ResultDecoder(QueryModel model, ConverterConfig config) {
+        this.model = model;
+        this.config = config;
+    }
+
+    /**
+     * 结果行的列名，SELECT * 时为 "*"，实际列为 _source 中的字段
+     */
+    public List<String> getColumns() {
+        return model.getSelectFields();
+    }
+
+    /**
+     * 读取响应文本
+     * @param rows 接收每一行，Map的迭代顺序与列顺序一致
+     * @return 输出的行数
+     */
+    public long decode(String response, Consumer<Map<String, Object>> rows) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            return decode(parser, rows);
+        }
+    }
+
+    /**
+     * 从字符流读取响应，读取完成后不关闭reader
+     */
+    public long decode(Reader response, Consumer<Map<String, Object>> rows) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return decode(parser, rows);
+        }
+    }
+
+    /**
+     * 从字节流读取响应，读取完成后不关闭输入流
+     */
+    public long decode(InputStream response, Consumer<Map<String, Object>> rows) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            parser.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+            return decode(parser, rows);
+        }
+    }
+
+    private long decode(JsonParser parser, Consumer<Map<String, Object>> rows) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new IllegalArgumentException("Elasticsearch response must be a JSON object");
+        }
+        return decodeObject(parser, rows);
+    }
+
+    /**
+     * 读取一个响应对象，当前位置为对象的开始，读取完成后停在对象的结束
+     * @throws IOException 响应为Elasticsearch的错误信息时
+     */
+    long decodeObject(JsonParser parser, Consumer<Map<String, Object>> rows) throws IOException {
+        Decoding decoding = new Decoding(rows);
+        if (model.isAggregation() && !model.isCountOnly()) {
+            decoding.plan = AggregationCompiler.compile(model, config);
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("error")) {
+                throw new IOException("Elasticsearch returned an error: " + JsonResponses.readValue(parser));
+            } else if (name.equals("count") && token.isNumeric()) {
+                // _count的响应
+                decoding.total = parser.getNumberValue();
+            } else if (name.equals("hits") && token == JsonToken.START_OBJECT) {
+                readHits(parser, decoding);
+            } else if (name.equals("aggregations") && token == JsonToken.START_OBJECT && decoding.plan != null) {
+                readAggregations(parser, decoding);
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (model.isCountOnly()) {
+            Map<String, Object> row = new LinkedHashMap<>();
+            for (String column : model.getSelectFields()) {
+                row.put(column, decoding.total);
+            }
+            decoding.emit(row);
+        } else if (decoding.plan != null && decoding.plan.getGroupBy().isEmpty()) {
+            // 没有GROUP BY的聚合只有一行，doc_count取命中总数
+            decoding.emit(aggregationRow(decoding.plan, Collections.emptyList(), decoding.total, decoding.metrics));
+        }
+        return decoding.count;
+    }
+
+    /**
+     * 读取hits，记录命中总数，非聚合查询中每个命中文档输出一行
+     */
+    private void readHits(JsonParser parser, Decoding decoding) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("total")) {
+                // 7.0之后为 {"value": n, "relation": "eq"}，之前为数字
+                if (token == JsonToken.START_OBJECT) {
+                    Object value = JsonResponses.readScalars(parser).get("value");
+                    decoding.total = value instanceof Number ? (Number) value : null;
+                } else if (token.isNumeric()) {
+                    decoding.total = parser.getNumberValue();
+                }
+            } else if (name.equals("hits") && token == JsonToken.START_ARRAY && !model.isAggregation()) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    decoding.emit(readHit(parser));
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * 读取一个命中文档，按SELECT列表从 _source、fields或元数据字段中取值
+     */
+    private Map<String, Object> readHit(JsonParser parser) throws IOException {
+        Map<String, Object> source = new LinkedHashMap<>();
+        Map<String, Object> meta = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("_source") && token == JsonToken.START_OBJECT) {
+                JsonResponses.readFlattened(parser, "", source);
+            } else if (name.equals("fields") && token == JsonToken.START_OBJECT) {
+                // fields和docvalue_fields的值总是数组，单个值时取出数组中的元素
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    Object value = JsonResponses.readValue(parser);
+                    if (value instanceof List && ((List<?>) value).size() == 1) {
+                        value = ((List<?>) value).get(0);
+                    }
+                    source.put(field, value);
+                }
+            } else if (META_FIELDS.contains(name)) {
+                meta.put(name, JsonResponses.readScalar(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        List<String> keys = model.getSelectKeys();
+        if (keys.contains("*")) {
+            return source;
+        }
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < keys.size(); i++) {
+            String key = keys.get(i);
+            row.put(model.getSelectFields().get(i), META_FIELDS.contains(key) ? meta.get(key) : source.get(key));
+        }
+        return row;
+    }
+
+    /**
+     * 读取aggregations，有GROUP BY时逐桶输出，没有GROUP BY时只记录指标聚合的结果
+     */
+    private void readAggregations(JsonParser parser, Decoding decoding) throws IOException {
+        AggregationPlan plan = decoding.plan;
+        if (plan.getGroupBy().isEmpty()) {
+            readMetrics(parser, decoding.metrics);
+            return;
+        }
+
+        boolean composite = config.getGroupByMode() == GroupByMode.COMPOSITE;
+        String name = composite ? CompositeCursor.AGGREGATION_NAME : "group_by_" + plan.getGroupBy().get(0).name;
+        if (!JsonResponses.moveToObjectField(parser, name)) {
+            return;
+        }
+        List<Object> keys = new ArrayList<>(plan.getGroupBy().size());
+        if (composite) {
+            readCompositeBuckets(parser, decoding);
+        } else {
+            readBuckets(parser, decoding, 0, keys);
+        }
+        // 跳过同一层的其他字段
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            parser.nextToken();
+            parser.skipChildren();
+        }
+    }
+
+    /**
+     * 读取一层terms或histogram聚合的桶，当前位置为聚合对象的开始
+     * @param level 分桶的层级，由外到内
+     * @param keys 外层桶的键
+     */
+    private void readBuckets(JsonParser parser, Decoding decoding, int level, List<Object> keys) throws IOException {
+        AggregationPlan plan = decoding.plan;
+        QueryModel.Bucket bucket = plan.getGroupBy().get(level);
+        boolean innermost = level == plan.getGroupBy().size() - 1;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (!name.equals("buckets") || token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Object key = null;
+                Object keyAsString = null;
+                Number docCount = null;
+                Map<String, Map<String, Object>> metrics = new HashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken valueToken = parser.nextToken();
+                    if (field.equals("key")) {
+                        key = JsonResponses.readScalar(parser);
+                    } else if (field.equals("key_as_string")) {
+                        keyAsString = JsonResponses.readScalar(parser);
+                    } else if (field.equals(AggregationPlan.DOC_COUNT) && valueToken.isNumeric()) {
+                        docCount = parser.getNumberValue();
+                    } else if (!innermost && valueToken == JsonToken.START_OBJECT
+                            && field.equals("group_by_" + plan.getGroupBy().get(level + 1).name)) {
+                        // 键在子聚合之前输出，进入下一层时已经读到
+                        keys.add(bucketKey(bucket, key, keyAsString));
+                        readBuckets(parser, decoding, level + 1, keys);
+                        keys.remove(keys.size() - 1);
+                    } else if (innermost && valueToken == JsonToken.START_OBJECT) {
+                        metrics.put(field, readMetric(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                if (innermost) {
+                    keys.add(bucketKey(bucket, key, keyAsString));
+                    decoding.emit(aggregationRow(plan, keys, docCount, metrics));
+                    keys.remove(keys.size() - 1);
+                }
+            }
+        }
+    }
+
+    /**
+     * 读取composite聚合的桶，当前位置为聚合对象的开始
+     */
+    private void readCompositeBuckets(JsonParser parser, Decoding decoding) throws IOException {
+        AggregationPlan plan = decoding.plan;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (!name.equals("buckets") || token != JsonToken.START_ARRAY) {
+                parser.skipChildren();
+                continue;
+            }
+
+            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                Map<String, Object> key = Collections.emptyMap();
+                Number docCount = null;
+                Map<String, Map<String, Object>> metrics = new HashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    JsonToken valueToken = parser.nextToken();
+                    if (field.equals("key") && valueToken == JsonToken.START_OBJECT) {
+                        key = JsonResponses.readScalars(parser);
+                    } else if (field.equals(AggregationPlan.DOC_COUNT) && valueToken.isNumeric()) {
+                        docCount = parser.getNumberValue();
+                    } else if (valueToken == JsonToken.START_OBJECT) {
+                        metrics.put(field, readMetric(parser));
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                List<Object> keys = new ArrayList<>(plan.getGroupBy().size());
+                for (QueryModel.Bucket bucket : plan.getGroupBy()) {
+                    keys.add(key.get(bucket.name));
+                }
+                decoding.emit(aggregationRow(plan, keys, docCount, metrics));
+            }
+        }
+    }
+
+    /**
+     * 读取同一层的所有指标聚合，当前位置为包含这些聚合的对象的开始
+     */
+    private static void readMetrics(JsonParser parser, Map<String, Map<String, Object>> metrics) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_OBJECT) {
+                metrics.put(name, readMetric(parser));
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * 读取一个指标聚合的结果，percentiles的values展开到同一层，其他嵌套对象跳过
+     */
+    private static Map<String, Object> readMetric(JsonParser parser) throws IOException {
+        Map<String, Object> values = new HashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (name.equals("values") && token == JsonToken.START_OBJECT) {
+                values.putAll(JsonResponses.readScalars(parser));
+            } else {
+                values.put(name, JsonResponses.readScalar(parser));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * 桶的键，带format的date_histogram使用格式化后的key_as_string
+     */
+    private static Object bucketKey(QueryModel.Bucket bucket, Object key, Object keyAsString) {
+        return bucket.format != null && keyAsString != null ? keyAsString : key;
+    }
+
+    /**
+     * 按SELECT列表组装聚合结果行
+     * @param keys 每层分桶的键
+     * @param docCount 桶的doc_count，没有GROUP BY时为命中总数
+     * @param metrics 指标聚合名称 -> 结果
+     */
+    private Map<String, Object> aggregationRow(AggregationPlan plan, List<Object> keys, Number docCount,
+                                               Map<String, Map<String, Object>> metrics) {
+        List<String> selectKeys = model.getSelectKeys();
+        Map<String, Object> row = new LinkedHashMap<>();
+        for (int i = 0; i < selectKeys.size(); i++) {
+            row.put(model.getSelectFields().get(i), aggregationValue(plan, selectKeys.get(i), keys, docCount, metrics));
+        }
+        return row;
+    }
+
+    private static Object aggregationValue(AggregationPlan plan, String key, List<Object> keys, Number docCount,
+                                           Map<String, Map<String, Object>> metrics) {
+        for (int i = 0; i < keys.size(); i++) {
+            if (plan.getGroupBy().get(i).name.equals(key)) {
+                return keys.get(i);
+            }
+        }
+        for (AggregationPlan.MetricRef ref : plan.getRefs()) {
+            if (!ref.name.equals(key)) {
+                continue;
+            }
+            if (ref.agg == null) {
+                return docCount;
+            }
+            Map<String, Object> values = metrics.get(ref.agg);
+            return values == null ? null : values.get(ref.key);
+        }
+        return null;
+    }
+
+    /**
+     * 一次读取的状态
+     */
+    private static final class Decoding {
+        final Consumer<Map<String, Object>> rows;
+        final Map<String, Map<String, Object>> metrics = new HashMap<>();
+        AggregationPlan plan;
+        Number total;
+        long count;
+
+        Decoding(Consumer<Map<String, Object>> rows) {
+            this.rows = rows;
+        }
+
+        void emit(Map<String, Object> row) {
+            rows.accept(row);
+            count++;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.elasticsql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 按索引映射改写中间表示
+ *
+ * 比较值按字段类型写成数字或布尔值，text字段上的精确匹配、范围、GROUP BY、ORDER BY
+ * 和COUNT、COUNT(DISTINCT) 改到keyword子字段上。映射中没有的字段保持不变。
+ */
+final class SchemaBinder {
+
+    private SchemaBinder() {
+    }
+
+    static QueryModel bind(QueryModel model, SchemaRegistry.IndexSchema schema) {
+        Predicate where = model.getWhere() == null ? null : bind(model.getWhere(), schema);
+
+        List<QueryModel.Bucket> groupBy = new ArrayList<>(model.getGroupBy().size());
+        for (QueryModel.Bucket bucket : model.getGroupBy()) {
+            groupBy.add(bucket.withField(docValuesField(bucket.field, "GROUP BY", schema)));
+        }
+
+        List<QueryModel.Metric> metrics = new ArrayList<>(model.getMetrics().size());
+        for (QueryModel.Metric metric : model.getMetrics()) {
+            if (metric.field != null && (metric.function.equals("count") || metric.function.equals("cardinality"))) {
+                metrics.add(metric.withField(exactField(metric.field, schema)));
+            } else {
+                metrics.add(metric);
+            }
+        }
+
+        // 聚合查询按分桶名称或聚合名称排序，不对应文档字段
+        List<QueryModel.Sort> sort = new ArrayList<>(model.getSort().size());
+        for (QueryModel.Sort item : model.getSort()) {
+            sort.add(model.isAggregation()
+                    ? item : new QueryModel.Sort(docValuesField(item.field, "ORDER BY", schema), item.asc));
+        }
+        return model.withSchema(where, groupBy, metrics, sort);
+    }
+
+    private static Predicate bind(Predicate predicate, SchemaRegistry.IndexSchema schema) {
+        if (predicate instanceof Predicate.And) {
+            List<Predicate> operands = new ArrayList<>();
+            for (Predicate operand : ((Predicate.And) predicate).operands) {
+                operands.add(bind(operand, schema));
+            }
+            return new Predicate.And(operands);
+        }
+        if (predicate instanceof Predicate.Or) {
+            List<Predicate> operands = new ArrayList<>();
+            for (Predicate operand : ((Predicate.Or) predicate).operands) {
+                operands.add(bind(operand, schema));
+            }
+            return new Predicate.Or(operands);
+        }
+        if (predicate instanceof Predicate.Not) {
+            return new Predicate.Not(bind(((Predicate.Not) predicate).operand, schema));
+        }
+        if (predicate instanceof Predicate.Term) {
+            Predicate.Term term = (Predicate.Term) predicate;
+            return new Predicate.Term(exactField(term.field, schema), typed(term.field, term.value, schema));
+        }
+        if (predicate instanceof Predicate.Terms) {
+            Predicate.Terms terms = (Predicate.Terms) predicate;
+            List<Predicate.Value> values = new ArrayList<>(terms.values.size());
+            for (Predicate.Value value : terms.values) {
+                values.add(typed(terms.field, value, schema));
+            }
+            return new Predicate.Terms(exactField(terms.field, schema), values);
+        }
+        if (predicate instanceof Predicate.Range) {
+            Predicate.Range range = (Predicate.Range) predicate;
+            return new Predicate.Range(exactField(range.field, schema),
+                    range.lower == null ? null : typed(range.field, range.lower, schema), range.includeLower,
+                    range.upper == null ? null : typed(range.field, range.upper, schema), range.includeUpper);
+        }
+        if (predicate instanceof Predicate.TermsLookup) {
+            Predicate.TermsLookup lookup = (Predicate.TermsLookup) predicate;
+            return new Predicate.TermsLookup(exactField(lookup.field, schema), lookup.index, lookup.id, lookup.path);
+        }
+        if (predicate instanceof Predicate.Prefix) {
+            Predicate.Prefix prefix = (Predicate.Prefix) predicate;
+            return new Predicate.Prefix(exactField(prefix.field, schema), prefix.value, prefix.caseInsensitive);
+        }
+        if (predicate instanceof Predicate.Wildcard) {
+            Predicate.Wildcard wildcard = (Predicate.Wildcard) predicate;
+            return new Predicate.Wildcard(exactField(wildcard.field, schema), wildcard.pattern,
+                    wildcard.caseInsensitive);
+        }
+        return predicate;
+    }
+
+    /**
+     * 精确匹配使用的字段：text字段有keyword子字段时使用子字段，避免与分词后的词项比较
+     */
+    private static String exactField(String field, SchemaRegistry.IndexSchema schema) {
+        String keyword = schema.keywordField(field);
+        return keyword != null ? keyword : field;
+    }
+
+    /**
+     * 分桶和排序使用的字段：text字段没有doc values，必须使用keyword子字段
+     */
+    private static String docValuesField(String field, String clause, SchemaRegistry.IndexSchema schema) {
+        if (!"text".equals(schema.type(field))) {
+            return field;
+        }
+        String keyword = schema.keywordField(field);
+        if (keyword == null) {
+            throw new UnsupportedOperationException(
+                    clause + " on text field " + field + " requires a keyword sub-field");
+        }
+        return keyword;
+    }
+
+    /**
+     * 按字段类型确定比较值的JSON类型，无法转换的字面量保持为字符串
+     */
+    private static Predicate.Value typed(String field, Predicate.Value value, SchemaRegistry.IndexSchema schema) {
+        String type = schema.type(field);
+        if (type == null) {
+            return value;
+        }
+        switch (type) {
+            case "long":
+            case "integer":
+            case "short":
+            case "byte":
+            case "double":
+            case "float":
+            case "half_float":
+            case "scaled_float":
+            case "unsigned_long":
+                return value.isParameter() || PreparedQuery.isNumber(value.getText())
+                        ? value.withKind(Predicate.Kind.NUMBER) : value;
+            case "date":
+            case "date_nanos":
+                // 数字按毫秒时间戳输出，字符串交给字段的format解析
+                return value.getNumber() != null ? value.withKind(Predicate.Kind.NUMBER) : value;
+            case "boolean":
+                return value.isParameter() || PreparedQuery.isBoolean(value.getText())
+                        ? value.withKind(Predicate.Kind.BOOLEAN) : value;
+            default:
+                return value;
+        }
+    }
+}
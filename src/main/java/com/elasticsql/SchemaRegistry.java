@@ -0,0 +1,204 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * 索引映射注册表
+ *
+ * 保存每个索引的字段类型，转换时据此把比较值写成数字或布尔值，
+ * 并把text字段上的等值条件、GROUP BY和ORDER BY改到keyword子字段上。
+ * 映射可以通过JSON（GET index/_mapping 的响应或其中的mappings部分）或字段类型表注册，
+ * 也可以在创建时指定目录，首次用到某个索引时读取目录下的 {@code <index>.json} 并缓存。
+ * 没有映射的索引按原来的方式转换。
+ *
+ * 注册表可以在多个线程间共享。开启转换缓存时，索引的映射注册后不应再修改。
+ */
+public final class SchemaRegistry {
+    private static final ObjectMapper objectMapper = new ObjectMapper();
+
+    /**
+     * 目录中没有映射文件的索引
+     */
+    private static final IndexSchema MISSING = new IndexSchema(Collections.emptyMap());
+
+    private final ConcurrentMap<String, IndexSchema> schemas = new ConcurrentHashMap<>();
+    private final Path directory;
+
+    /**
+     * 只使用注册的映射
+     */
+    public SchemaRegistry() {
+        this(null);
+    }
+
+    /**
+     * 未注册的索引从目录下的 {@code <index>.json} 读取映射
+     */
+    public SchemaRegistry(Path directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * 注册索引映射
+     * @param mappingJson GET index/_mapping 的响应，或其中的mappings/properties部分
+     */
+    public SchemaRegistry register(String index, String mappingJson) {
+        schemas.put(index, parse(index, mappingJson));
+        return this;
+    }
+
+    /**
+     * 注册字段类型表，子字段使用完整名称，例如 {@code name -> text, name.keyword -> keyword}
+     */
+    public SchemaRegistry register(String index, Map<String, String> fieldTypes) {
+        schemas.put(index, new IndexSchema(fieldTypes));
+        return this;
+    }
+
+    /**
+     * 从JSON文件读取并注册索引映射
+     */
+    public SchemaRegistry load(String index, Path file) throws IOException {
+        schemas.put(index, parse(index, new String(Files.readAllBytes(file), StandardCharsets.UTF_8)));
+        return this;
+    }
+
+    /**
+     * 删除索引映射，配置了目录时下次用到该索引会重新读取文件
+     */
+    public void invalidate(String index) {
+        schemas.remove(index);
+    }
+
+    /**
+     * 获取索引映射，没有映射时返回null
+     */
+    IndexSchema get(String index) {
+        IndexSchema schema = schemas.get(index);
+        if (schema == null && directory != null) {
+            schema = schemas.computeIfAbsent(index, this::loadFromDirectory);
+        }
+        return schema == MISSING ? null : schema;
+    }
+
+    private IndexSchema loadFromDirectory(String index) {
+        Path file = directory.resolve(index + ".json");
+        if (!Files.isRegularFile(file)) {
+            return MISSING;
+        }
+        try {
+            return parse(index, new String(Files.readAllBytes(file), StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to read mapping for index " + index, e);
+        }
+    }
+
+    private static IndexSchema parse(String index, String mappingJson) {
+        JsonNode root;
+        try {
+            root = objectMapper.readTree(mappingJson);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid mapping JSON for index " + index, e);
+        }
+        JsonNode properties = findProperties(root);
+        if (properties == null) {
+            throw new IllegalArgumentException("No properties found in mapping for index " + index);
+        }
+        Map<String, String> fieldTypes = new HashMap<>();
+        collectFields(properties, "", fieldTypes);
+        return new IndexSchema(fieldTypes);
+    }
+
+    /**
+     * 在 {index: {mappings: {properties}}}、{mappings: {properties}} 或 {properties} 中查找properties
+     */
+    private static JsonNode findProperties(JsonNode node) {
+        if (node == null || !node.isObject()) {
+            return null;
+        }
+        if (node.has("properties")) {
+            return node.get("properties");
+        }
+        if (node.has("mappings")) {
+            return findProperties(node.get("mappings"));
+        }
+        // 索引名或旧版本的类型名
+        return node.size() == 1 ? findProperties(node.elements().next()) : null;
+    }
+
+    /**
+     * 展开对象字段和多字段，字段名使用点号连接的完整路径
+     */
+    private static void collectFields(JsonNode properties, String prefix, Map<String, String> fieldTypes) {
+        Iterator<Map.Entry<String, JsonNode>> fields = properties.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> entry = fields.next();
+            String path = prefix + entry.getKey();
+            JsonNode definition = entry.getValue();
+            if (definition.has("type")) {
+                fieldTypes.put(path, definition.get("type").asText());
+            }
+            if (definition.has("properties")) {
+                collectFields(definition.get("properties"), path + ".", fieldTypes);
+            }
+            if (definition.has("fields")) {
+                collectFields(definition.get("fields"), path + ".", fieldTypes);
+            }
+        }
+    }
+
+    /**
+     * 一个索引的字段类型
+     */
+    static final class IndexSchema {
+        private final Map<String, String> fieldTypes;
+        /**
+         * text字段 -> keyword子字段
+         */
+        private final Map<String, String> keywordFields = new HashMap<>();
+
+        IndexSchema(Map<String, String> fieldTypes) {
+            this.fieldTypes = new HashMap<>(fieldTypes);
+            for (Map.Entry<String, String> entry : this.fieldTypes.entrySet()) {
+                String field = entry.getKey();
+                int dot = field.lastIndexOf('.');
+                if (dot < 0 || !entry.getValue().equals("keyword")) {
+                    continue;
+                }
+                String parent = field.substring(0, dot);
+                // 同一字段有多个keyword子字段时优先使用名为keyword的子字段
+                if ("text".equals(this.fieldTypes.get(parent))
+                        && (!keywordFields.containsKey(parent) || field.endsWith(".keyword"))) {
+                    keywordFields.put(parent, field);
+                }
+            }
+        }
+
+        /**
+         * 字段类型，映射中没有该字段时返回null
+         */
+        String type(String field) {
+            return fieldTypes.get(field);
+        }
+
+        /**
+         * text字段的keyword子字段，没有时返回null
+         */
+        String keywordField(String field) {
+            return keywordFields.get(field);
+        }
+    }
+}
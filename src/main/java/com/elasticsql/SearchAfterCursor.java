@@ -0,0 +1,168 @@
+package com.elasticsql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 普通查询的search_after分页游标
+ *
+ * 由 {@link ElasticSqlConverter#searchAfterCursor(String, ConverterConfig)} 创建，SQL只解析一次。
+ * 排序末尾追加唯一字段（配置的tiebreakerField，使用PIT时默认为_shard_doc），
+ * 每一页从上一页最后一条结果的sort值之后开始，代价不随翻页深度增长，也不受max_result_window限制。
+ * 使用PIT时请求体中带有pit，请求应发送到不带索引的 /_search。
+ * 实例不可变，可以在多个线程间共享。
+ *
+ * <pre>
+ * SearchAfterCursor cursor = ElasticSqlConverter.searchAfterCursor(sql, pitId);
+ * String request = cursor.firstPage();
+ * while (request != null) {
+ *     String response = search(request);
+ *     // 处理响应中的文档
+ *     request = cursor.nextPage(response);
+ * }
+ * </pre>
+ */
+public final class SearchAfterCursor {
+    /**
+     * PIT分页默认的唯一排序字段
+     */
+    static final String SHARD_DOC = "_shard_doc";
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final QueryModel model;
+    private final ConverterConfig config;
+    private final List<QueryModel.Sort> sort;
+    private final Predicate.Value size;
+    private final String pitId;
+
+    SearchAfterCursor(QueryModel model, ConverterConfig config, Predicate.Value size, String pitId) {
+        String tiebreaker = config.getTiebreakerField() != null ? config.getTiebreakerField()
+                : pitId != null ? SHARD_DOC : null;
+        if (tiebreaker == null) {
+            throw new IllegalArgumentException("search_after paging requires a point in time or a tiebreaker field");
+        }
+
+        // 排序中没有唯一字段时追加到末尾，保证相同排序值的文档不会跨页重复或遗漏
+        List<QueryModel.Sort> sort = new ArrayList<>(model.getSort());
+        boolean present = false;
+        for (QueryModel.Sort item : sort) {
+            present |= item.field.equals(tiebreaker);
+        }
+        if (!present) {
+            sort.add(new QueryModel.Sort(tiebreaker, true));
+        }
+
+        this.model = model;
+        this.config = config;
+        this.sort = sort;
+        this.size = size;
+        this.pitId = pitId;
+    }
+
+    /**
+     * 目标索引，使用PIT时请求路径中不应再指定索引
+     */
+    public String getIndex() {
+        return model.getIndex();
+    }
+
+    /**
+     * 每页条数
+     */
+    public int getPageSize() {
+        return size.getNumber().intValue();
+    }
+
+    /**
+     * 把每一页的响应转换为结果行
+     */
+    public ResultDecoder getDecoder() {
+        return new ResultDecoder(model, config);
+    }
+
+    /**
+     * 第一页的DSL
+     */
+    public String firstPage() throws IOException {
+        return page(null);
+    }
+
+    /**
+     * 从指定sort值之后开始的一页DSL
+     * @param sortValues 上一页最后一条结果的sort值，为null时返回第一页
+     */
+    public String page(List<Object> sortValues) throws IOException {
+        return page(sortValues, pitId);
+    }
+
+    private String page(List<Object> sortValues, String pitId) throws IOException {
+        QueryModel.SearchAfter searchAfter = new QueryModel.SearchAfter(sortValues, pitId, config.getPitKeepAlive());
+        return SelectHandler.render(model.withSearchAfter(sort, size, searchAfter), config);
+    }
+
+    /**
+     * 根据上一页的响应生成下一页的DSL，响应中有新的pit_id时使用新的id
+     * @param response 上一页的Elasticsearch响应
+     * @return 下一页的DSL，本页条数不足一页时返回null
+     */
+    public String nextPage(String response) throws IOException {
+        try (JsonParser parser = JSON_FACTORY.createParser(response)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+
+            String nextPitId = pitId;
+            List<Object> lastSort = null;
+            int hitCount = 0;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (name.equals("pit_id") && token == JsonToken.VALUE_STRING) {
+                    nextPitId = parser.getText();
+                } else if (name.equals("hits") && token == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String hitsName = parser.getCurrentName();
+                        if (parser.nextToken() == JsonToken.START_ARRAY && hitsName.equals("hits")) {
+                            // 只读取每条结果的sort，跳过_source等内容
+                            while (parser.nextToken() == JsonToken.START_OBJECT) {
+                                hitCount++;
+                                lastSort = readSort(parser);
+                            }
+                        } else {
+                            parser.skipChildren();
+                        }
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+
+            if (hitCount < getPageSize() || lastSort == null) {
+                return null;
+            }
+            return page(lastSort, nextPitId);
+        }
+    }
+
+    /**
+     * 读取一条结果的sort值，当前位置为结果对象的开始
+     */
+    private static List<Object> readSort(JsonParser parser) throws IOException {
+        List<Object> sortValues = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            if (parser.nextToken() == JsonToken.START_ARRAY && name.equals("sort")) {
+                sortValues = JsonResponses.readScalarArray(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return sortValues;
+    }
+}
@@ -0,0 +1,396 @@
+package com.elasticsql;
+
+import net.sf.jsqlparser.expression.Alias;
+import net.sf.jsqlparser.expression.BinaryExpression;
+import net.sf.jsqlparser.expression.DoubleValue;
+import net.sf.jsqlparser.expression.Expression;
+import net.sf.jsqlparser.expression.JdbcNamedParameter;
+import net.sf.jsqlparser.expression.JdbcParameter;
+import net.sf.jsqlparser.expression.LongValue;
+import net.sf.jsqlparser.expression.Parenthesis;
+import net.sf.jsqlparser.expression.StringValue;
+import net.sf.jsqlparser.expression.operators.conditional.AndExpression;
+import net.sf.jsqlparser.expression.operators.conditional.OrExpression;
+import net.sf.jsqlparser.expression.operators.relational.*;
+import net.sf.jsqlparser.schema.Column;
+import net.sf.jsqlparser.schema.Table;
+import net.sf.jsqlparser.statement.select.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * 简单SELECT语句的手写解析器
+ *
+ * 只支持以下形式，生成与JSqlParser相同的语法树：
+ * SELECT * | col [AS alias], ... FROM table [WHERE 条件] [ORDER BY col [ASC|DESC], ...] [LIMIT n [OFFSET m]]
+ * 条件由 AND、OR、括号以及 "列 比较运算符 字面量/参数" 组成。
+ * 遇到任何不支持的语法都返回null，由调用方回退到JSqlParser。
+ */
+final class SimpleSelectParser {
+    private static final Set<String> KEYWORDS = new HashSet<>(Arrays.asList(
+            "SELECT", "FROM", "WHERE", "AND", "OR", "NOT", "ORDER", "BY", "ASC", "DESC", "LIMIT", "OFFSET",
+            "AS", "GROUP", "HAVING", "IN", "IS", "NULL", "LIKE", "BETWEEN", "DISTINCT", "JOIN", "ON", "UNION",
+            "TRUE", "FALSE", "CASE", "WHEN", "EXISTS", "ALL", "ANY", "INTERVAL", "FETCH", "TOP"));
+
+    private static final int INVALID = -1;
+    private static final int EOF = 0;
+    private static final int WORD = 1;
+    private static final int STRING = 2;
+    private static final int NUMBER = 3;
+    private static final int DECIMAL = 4;
+    private static final int PARAM = 5;
+    private static final int NAMED_PARAM = 6;
+    private static final int SYMBOL = 7;
+
+    private final String sql;
+    private int pos;
+    private int tokenType;
+    private String tokenText;
+    private int parameterIndex;
+
+    private SimpleSelectParser(String sql) {
+        this.sql = sql;
+    }
+
+    /**
+     * 解析SQL，不在支持范围内时返回null
+     */
+    static PlainSelect parse(String sql) {
+        SimpleSelectParser parser = new SimpleSelectParser(sql);
+        if (!parser.next()) {
+            return null;
+        }
+        return parser.parseSelect();
+    }
+
+    private PlainSelect parseSelect() {
+        if (!acceptKeyword("SELECT")) {
+            return null;
+        }
+        PlainSelect plainSelect = new PlainSelect();
+
+        // SELECT列表
+        do {
+            if (tokenType == SYMBOL && tokenText.equals("*")) {
+                if (!next()) {
+                    return null;
+                }
+                plainSelect.addSelectItems(new SelectItem<>(new AllColumns()));
+            } else {
+                String column = identifier();
+                if (column == null) {
+                    return null;
+                }
+                Alias alias = null;
+                if (acceptKeyword("AS")) {
+                    String aliasName = identifier();
+                    if (aliasName == null) {
+                        return null;
+                    }
+                    alias = new Alias(aliasName, true);
+                }
+                plainSelect.addSelectItems(new SelectItem<>(new Column(column), alias));
+            }
+        } while (acceptSymbol(","));
+
+        if (!acceptKeyword("FROM")) {
+            return null;
+        }
+        String table = identifier();
+        if (table == null) {
+            return null;
+        }
+        plainSelect.withFromItem(new Table(table));
+
+        if (acceptKeyword("WHERE")) {
+            Expression where = parseOr();
+            if (where == null) {
+                return null;
+            }
+            plainSelect.withWhere(where);
+        }
+
+        if (acceptKeyword("ORDER")) {
+            if (!acceptKeyword("BY")) {
+                return null;
+            }
+            List<OrderByElement> orderByElements = new ArrayList<>();
+            do {
+                String column = identifier();
+                if (column == null) {
+                    return null;
+                }
+                OrderByElement element = new OrderByElement();
+                element.setExpression(new Column(column));
+                if (acceptKeyword("ASC")) {
+                    element.setAscDescPresent(true);
+                } else if (acceptKeyword("DESC")) {
+                    element.setAsc(false);
+                    element.setAscDescPresent(true);
+                }
+                orderByElements.add(element);
+            } while (acceptSymbol(","));
+            plainSelect.setOrderByElements(orderByElements);
+        }
+
+        if (acceptKeyword("LIMIT")) {
+            Expression rowCount = limitValue();
+            if (rowCount == null) {
+                return null;
+            }
+            plainSelect.setLimit(new Limit().withRowCount(rowCount));
+            if (acceptKeyword("OFFSET")) {
+                Expression offset = limitValue();
+                if (offset == null) {
+                    return null;
+                }
+                plainSelect.setOffset(new Offset().withOffset(offset));
+            }
+        }
+
+        return tokenType == EOF ? plainSelect : null;
+    }
+
+    /**
+     * 条件 := AND条件 (OR AND条件)*
+     */
+    private Expression parseOr() {
+        Expression left = parseAnd();
+        while (left != null && acceptKeyword("OR")) {
+            Expression right = parseAnd();
+            left = right == null ? null : new OrExpression(left, right);
+        }
+        return left;
+    }
+
+    /**
+     * AND条件 := 基本条件 (AND 基本条件)*
+     */
+    private Expression parseAnd() {
+        Expression left = parsePrimary();
+        while (left != null && acceptKeyword("AND")) {
+            Expression right = parsePrimary();
+            left = right == null ? null : new AndExpression(left, right);
+        }
+        return left;
+    }
+
+    /**
+     * 基本条件 := ( 条件 ) | 列 比较运算符 值
+     */
+    private Expression parsePrimary() {
+        if (acceptSymbol("(")) {
+            Expression inner = parseOr();
+            if (inner == null || !acceptSymbol(")")) {
+                return null;
+            }
+            return new Parenthesis(inner);
+        }
+
+        String column = identifier();
+        if (column == null || tokenType != SYMBOL) {
+            return null;
+        }
+        BinaryExpression comparison;
+        switch (tokenText) {
+            case "=":
+                comparison = new EqualsTo();
+                break;
+            case "!=":
+            case "<>":
+                comparison = new NotEqualsTo(tokenText);
+                break;
+            case ">":
+                comparison = new GreaterThan();
+                break;
+            case ">=":
+                comparison = new GreaterThanEquals();
+                break;
+            case "<":
+                comparison = new MinorThan();
+                break;
+            case "<=":
+                comparison = new MinorThanEquals();
+                break;
+            default:
+                return null;
+        }
+        if (!next()) {
+            return null;
+        }
+        Expression value = value();
+        if (value == null) {
+            return null;
+        }
+        comparison.setLeftExpression(new Column(column));
+        comparison.setRightExpression(value);
+        return comparison;
+    }
+
+    /**
+     * 比较值：字符串、数字或参数占位符
+     */
+    private Expression value() {
+        Expression value;
+        switch (tokenType) {
+            case STRING:
+                value = new StringValue(tokenText);
+                break;
+            case NUMBER:
+                value = new LongValue(tokenText);
+                break;
+            case DECIMAL:
+                value = new DoubleValue(tokenText);
+                break;
+            case PARAM:
+                value = new JdbcParameter().withIndex(++parameterIndex);
+                break;
+            case NAMED_PARAM:
+                value = new JdbcNamedParameter(tokenText);
+                break;
+            default:
+                return null;
+        }
+        return next() ? value : null;
+    }
+
+    private Expression limitValue() {
+        if (tokenType != NUMBER && tokenType != PARAM && tokenType != NAMED_PARAM) {
+            return null;
+        }
+        return value();
+    }
+
+    /**
+     * 读取一个非关键字的标识符
+     */
+    private String identifier() {
+        if (tokenType != WORD || KEYWORDS.contains(tokenText.toUpperCase())) {
+            return null;
+        }
+        String text = tokenText;
+        return next() ? text : null;
+    }
+
+    private boolean acceptKeyword(String keyword) {
+        if (tokenType == WORD && tokenText.equalsIgnoreCase(keyword)) {
+            return next();
+        }
+        return false;
+    }
+
+    private boolean acceptSymbol(String symbol) {
+        if (tokenType == SYMBOL && tokenText.equals(symbol)) {
+            return next();
+        }
+        return false;
+    }
+
+    /**
+     * 读取下一个词法单元，遇到不支持的字符时返回false，之后不再匹配任何语法
+     */
+    private boolean next() {
+        if (scan()) {
+            return true;
+        }
+        tokenType = INVALID;
+        tokenText = null;
+        return false;
+    }
+
+    private boolean scan() {
+        int len = sql.length();
+        while (pos < len && Character.isWhitespace(sql.charAt(pos))) {
+            pos++;
+        }
+        if (pos >= len) {
+            tokenType = EOF;
+            tokenText = null;
+            return true;
+        }
+
+        int start = pos;
+        char c = sql.charAt(pos);
+        if (Character.isLetter(c) || c == '_') {
+            while (pos < len && (Character.isLetterOrDigit(sql.charAt(pos)) || sql.charAt(pos) == '_')) {
+                pos++;
+            }
+            return token(WORD, sql.substring(start, pos));
+        }
+        if (c >= '0' && c <= '9') {
+            while (pos < len && sql.charAt(pos) >= '0' && sql.charAt(pos) <= '9') {
+                pos++;
+            }
+            int type = NUMBER;
+            if (pos + 1 < len && sql.charAt(pos) == '.' && Character.isDigit(sql.charAt(pos + 1))) {
+                pos++;
+                while (pos < len && sql.charAt(pos) >= '0' && sql.charAt(pos) <= '9') {
+                    pos++;
+                }
+                type = DECIMAL;
+            }
+            if (pos < len && (Character.isLetter(sql.charAt(pos)) || sql.charAt(pos) == '_' || sql.charAt(pos) == '.')) {
+                return false;
+            }
+            return token(type, sql.substring(start, pos));
+        }
+        if (c == '\'') {
+            pos++;
+            while (pos < len) {
+                if (sql.charAt(pos) == '\'') {
+                    if (pos + 1 < len && sql.charAt(pos + 1) == '\'') {
+                        pos += 2;
+                        continue;
+                    }
+                    pos++;
+                    // 与JSqlParser一致，StringValue保留引号内的原始内容
+                    return token(STRING, sql.substring(start, pos));
+                }
+                pos++;
+            }
+            return false;
+        }
+        if (c == '?') {
+            pos++;
+            if (pos < len && Character.isDigit(sql.charAt(pos))) {
+                // ?1 形式的固定序号参数交给JSqlParser处理
+                return false;
+            }
+            return token(PARAM, "?");
+        }
+        if (c == ':') {
+            pos++;
+            while (pos < len && (Character.isLetterOrDigit(sql.charAt(pos)) || sql.charAt(pos) == '_')) {
+                pos++;
+            }
+            if (pos == start + 1 || !Character.isLetter(sql.charAt(start + 1))) {
+                return false;
+            }
+            return token(NAMED_PARAM, sql.substring(start + 1, pos));
+        }
+        if (c == '<' || c == '>' || c == '!') {
+            pos++;
+            if (pos < len && (sql.charAt(pos) == '=' || (c == '<' && sql.charAt(pos) == '>'))) {
+                pos++;
+            } else if (c == '!') {
+                return false;
+            }
+            return token(SYMBOL, sql.substring(start, pos));
+        }
+        if (c == '=' || c == ',' || c == '(' || c == ')' || c == '*') {
+            pos++;
+            return token(SYMBOL, String.valueOf(c));
+        }
+        return false;
+    }
+
+    private boolean token(int type, String text) {
+        tokenType = type;
+        tokenText = text;
+        return true;
+    }
+}
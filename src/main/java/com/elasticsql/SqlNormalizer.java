@@ -0,0 +1,202 @@
+package com.elasticsql;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SQL字面量归一化
+ *
+ * 把SQL中的字符串和数字字面量替换为 ? 占位符，得到与字面量无关的SQL形状，
+ * 例如 "WHERE age > 18" 和 "WHERE age > 21" 归一化后都是 "WHERE age > ?"。
+ * 只做词法扫描，不调用JSqlParser。
+ */
+final class SqlNormalizer {
+
+    private SqlNormalizer() {
+    }
+
+    /**
+     * 归一化结果：SQL形状和按出现顺序提取的字面量
+     */
+    static final class Normalized {
+        private final String shape;
+        private final Object[] literals;
+
+        Normalized(String shape, Object[] literals) {
+            this.shape = shape;
+            this.literals = literals;
+        }
+
+        String getShape() {
+            return shape;
+        }
+
+        Object[] getLiterals() {
+            return literals;
+        }
+    }
+
+    /**
+     * 归一化SQL，SQL中已经带有占位符时返回null
+     */
+    static Normalized normalize(String sql) {
+        int len = sql.length();
+        StringBuilder shape = new StringBuilder(len);
+        List<Object> literals = new ArrayList<>();
+        boolean pendingSpace = false;
+        // 上一个单词是LIKE/ILIKE/ESCAPE时，紧随的字符串保持原样：模式的形状决定生成哪种查询
+        boolean keepString = false;
+        // 分桶函数的参数（时间单位、格式、间隔）和百分位数决定聚合方式，括号内的字面量保持原样
+        boolean shapeFunction = false;
+        int keepDepth = 0;
+
+        int i = 0;
+        while (i < len) {
+            char c = sql.charAt(i);
+            if (Character.isWhitespace(c)) {
+                // 连续空白折叠为一个空格
+                pendingSpace = shape.length() > 0;
+                i++;
+                continue;
+            }
+            if (pendingSpace) {
+                shape.append(' ');
+                pendingSpace = false;
+            }
+
+            int end;
+            boolean keepNext = false;
+            boolean shapeNext = false;
+            if (c == '\'') {
+                end = quoteEnd(sql, i, c);
+                if (keepString || keepDepth > 0 || (i > 0 && Character.isJavaIdentifierPart(sql.charAt(i - 1)))) {
+                    // LIKE模式以及N'...'、X'...'等带前缀的字面量保持原样
+                    shape.append(sql, i, end);
+                } else {
+                    // 与转换时一致，取引号内的内容，连续两个引号还原为一个
+                    literals.add(sql.substring(i + 1, end - 1).replace("''", "'"));
+                    shape.append('?');
+                }
+            } else if (c == '"' || c == '`') {
+                end = quoteEnd(sql, i, c);
+                shape.append(sql, i, end);
+            } else if (c == '-' && i + 1 < len && sql.charAt(i + 1) == '-') {
+                int eol = sql.indexOf('\n', i);
+                end = eol < 0 ? len : eol + 1;
+                shape.append(sql, i, end);
+            } else if (c == '/' && i + 1 < len && sql.charAt(i + 1) == '*') {
+                int close = sql.indexOf("*/", i + 2);
+                end = close < 0 ? len : close + 2;
+                shape.append(sql, i, end);
+            } else if (c == '?' || (c == ':' && i + 1 < len && Character.isJavaIdentifierStart(sql.charAt(i + 1))
+                    && (i == 0 || sql.charAt(i - 1) != ':'))) {
+                return null;
+            } else if (Character.isJavaIdentifierStart(c)) {
+                end = i + 1;
+                while (end < len && Character.isJavaIdentifierPart(sql.charAt(end))) {
+                    end++;
+                }
+                shape.append(sql, i, end);
+                keepNext = isPatternKeyword(sql, i, end);
+                shapeNext = isShapeFunction(sql, i, end);
+            } else if (c >= '0' && c <= '9' && (i == 0 || sql.charAt(i - 1) != '.')) {
+                end = numberEnd(sql, i);
+                BigDecimal number = keepDepth > 0 || (end < len && Character.isJavaIdentifierPart(sql.charAt(end)))
+                        ? null : new BigDecimal(sql.substring(i, end));
+                if (number == null || !canonical(number).equals(sql.substring(i, end))) {
+                    // 007、3.50、1e5等文本与数值形式不同的数字保持原样，避免绑定后文本或精度变化
+                    shape.append(sql, i, end);
+                } else {
+                    // 以数值绑定，IN列表中按JSON数字输出
+                    literals.add(number);
+                    shape.append('?');
+                }
+            } else {
+                end = i + 1;
+                shape.append(c);
+                if (c == '(' && (shapeFunction || keepDepth > 0)) {
+                    keepDepth++;
+                } else if (c == ')' && keepDepth > 0) {
+                    keepDepth--;
+                }
+            }
+            i = end;
+            keepString = keepNext;
+            shapeFunction = shapeNext;
+        }
+        return new Normalized(shape.toString(), literals.toArray());
+    }
+
+    /**
+     * 数字的规范文本，小数与转换时一样按double取值
+     */
+    private static String canonical(BigDecimal number) {
+        return number.scale() <= 0 ? number.toString() : BigDecimal.valueOf(number.doubleValue()).toString();
+    }
+
+    private static boolean isShapeFunction(String sql, int start, int end) {
+        int length = end - start;
+        return (length == 10 && sql.regionMatches(true, start, "DATE_TRUNC", 0, 10))
+                || (length == 11 && sql.regionMatches(true, start, "DATE_FORMAT", 0, 11))
+                || (length == 9 && sql.regionMatches(true, start, "HISTOGRAM", 0, 9))
+                || (length == 10 && sql.regionMatches(true, start, "PERCENTILE", 0, 10))
+                || (length == 17 && sql.regionMatches(true, start, "PERCENTILE_APPROX", 0, 17));
+    }
+
+    private static boolean isPatternKeyword(String sql, int start, int end) {
+        int length = end - start;
+        return (length == 4 && sql.regionMatches(true, start, "LIKE", 0, 4))
+                || (length == 5 && sql.regionMatches(true, start, "ILIKE", 0, 5))
+                || (length == 6 && sql.regionMatches(true, start, "ESCAPE", 0, 6));
+    }
+
+    /**
+     * 引号结束位置（不含），连续两个引号视为转义
+     */
+    private static int quoteEnd(String sql, int start, char quote) {
+        int i = start + 1;
+        int len = sql.length();
+        while (i < len) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < len && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return len;
+    }
+
+    /**
+     * 数字字面量结束位置（不含）
+     */
+    private static int numberEnd(String sql, int start) {
+        int len = sql.length();
+        int i = start;
+        while (i < len && Character.isDigit(sql.charAt(i))) {
+            i++;
+        }
+        if (i + 1 < len && sql.charAt(i) == '.' && Character.isDigit(sql.charAt(i + 1))) {
+            i++;
+            while (i < len && Character.isDigit(sql.charAt(i))) {
+                i++;
+            }
+        }
+        if (i < len && (sql.charAt(i) == 'e' || sql.charAt(i) == 'E')) {
+            int exp = i + 1;
+            if (exp < len && (sql.charAt(exp) == '+' || sql.charAt(exp) == '-')) {
+                exp++;
+            }
+            if (exp < len && Character.isDigit(sql.charAt(exp))) {
+                i = exp;
+                while (i < len && Character.isDigit(sql.charAt(i))) {
+                    i++;
+                }
+            }
+        }
+        return i;
+    }
+}
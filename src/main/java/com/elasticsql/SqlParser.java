@@ -0,0 +1,119 @@
+package com.elasticsql;
+
+import net.sf.jsqlparser.JSQLParserException;
+import net.sf.jsqlparser.parser.CCJSqlParser;
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.parser.ParseException;
+import net.sf.jsqlparser.parser.StringProvider;
+import net.sf.jsqlparser.parser.TokenMgrException;
+import net.sf.jsqlparser.statement.Statement;
+import net.sf.jsqlparser.statement.Statements;
+
+/**
+ * 按配置的解析方式把SQL解析为JSqlParser语句
+ */
+final class SqlParser {
+
+    private SqlParser() {
+    }
+
+    static Statement parse(String sql, ConverterConfig config) throws JSQLParserException {
+        switch (config.getParseMode()) {
+            case FAST_PATH:
+                checkLimits(sql, config);
+                Statement stmt = SimpleSelectParser.parse(sql);
+                return stmt != null ? stmt : parseDirect(sql);
+            case DIRECT:
+                checkLimits(sql, config);
+                return parseDirect(sql);
+            default:
+                return CCJSqlParserUtil.parse(sql);
+        }
+    }
+
+    /**
+     * 解析以分号分隔的多条SQL
+     */
+    static Statements parseStatements(String script, ConverterConfig config) throws JSQLParserException {
+        if (config.getParseMode() == ParseMode.JSQLPARSER) {
+            return CCJSqlParserUtil.parseStatements(script);
+        }
+        checkLimits(script, config);
+        try {
+            return newParser(script, false).Statements();
+        } catch (ParseException | TokenMgrException e) {
+            if (CCJSqlParserUtil.getNestingDepth(script) > CCJSqlParserUtil.ALLOWED_NESTING_DEPTH) {
+                throw new JSQLParserException(e);
+            }
+            try {
+                return newParser(script, true).Statements();
+            } catch (ParseException | TokenMgrException retryException) {
+                throw new JSQLParserException(retryException);
+            }
+        }
+    }
+
+    /**
+     * 在调用线程上解析
+     * 解析器的状态（如JDBC参数计数）在ReInit时不会重置，所以每次使用新的解析器实例
+     */
+    private static Statement parseDirect(String sql) throws JSQLParserException {
+        try {
+            return newParser(sql, false).Statement();
+        } catch (ParseException | TokenMgrException e) {
+            // 与CCJSqlParserUtil一致，简单模式失败后用复杂模式重试
+            if (CCJSqlParserUtil.getNestingDepth(sql) > CCJSqlParserUtil.ALLOWED_NESTING_DEPTH) {
+                throw new JSQLParserException(e);
+            }
+            try {
+                return newParser(sql, true).Statement();
+            } catch (ParseException | TokenMgrException retryException) {
+                throw new JSQLParserException(retryException);
+            }
+        }
+    }
+
+    private static CCJSqlParser newParser(String sql, boolean allowComplexParsing) {
+        CCJSqlParser parser = new CCJSqlParser(new StringProvider(sql));
+        parser.withAllowComplexParsing(allowComplexParsing);
+        return parser;
+    }
+
+    /**
+     * 检查SQL长度和括号嵌套深度，代替超时限制异常的输入
+     * 不带括号的AND/OR条件链在转换时逐层展开，不随长度递归，只受长度限制
+     */
+    private static void checkLimits(String sql, ConverterConfig config) throws JSQLParserException {
+        if (sql.length() > config.getMaxSqlLength()) {
+            throw new JSQLParserException("SQL length " + sql.length() + " exceeds the limit of "
+                    + config.getMaxSqlLength());
+        }
+
+        int depth = 0;
+        int len = sql.length();
+        for (int i = 0; i < len; i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                // 跳过字符串，连续两个引号视为转义
+                i++;
+                while (i < len) {
+                    if (sql.charAt(i) == '\'') {
+                        if (i + 1 < len && sql.charAt(i + 1) == '\'') {
+                            i += 2;
+                            continue;
+                        }
+                        break;
+                    }
+                    i++;
+                }
+            } else if (c == '(') {
+                if (++depth > config.getMaxNestingDepth()) {
+                    throw new JSQLParserException("SQL nesting depth exceeds the limit of "
+                            + config.getMaxNestingDepth());
+                }
+            } else if (c == ')') {
+                depth--;
+            }
+        }
+    }
+}
@@ -1,6 +1,26 @@
 package com.elasticsql;
 
+import net.sf.jsqlparser.parser.CCJSqlParserUtil;
+import net.sf.jsqlparser.statement.select.PlainSelect;
 import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
 import static org.junit.jupiter.api.Assertions.*;
 
 public class ElasticSqlConverterTest {
@@ -31,8 +51,9 @@ public class ElasticSqlConverterTest {
         System.out.println("Table name: " + table);
         assertNotNull(dsl);
         assertEquals("users", table);
-        // 验证生成的DSL包含AND条件
-        assertTrue(dsl.contains("must"));
+        // 验证生成的DSL包含AND条件，默认使用过滤上下文
+        assertTrue(dsl.contains("filter"));
+        assertFalse(dsl.contains("must"));
     }
 
     /**
@@ -65,7 +86,8 @@ public class ElasticSqlConverterTest {
         assertNotNull(dsl);
         assertEquals("users", table);
         // 验证生成的DSL包含复杂的条件组合
-        assertTrue(dsl.contains("must"));
+        assertTrue(dsl.contains("constant_score"));
+        assertTrue(dsl.contains("filter"));
         assertTrue(dsl.contains("should"));
     }
 
@@ -85,8 +107,9 @@ public class ElasticSqlConverterTest {
         String dsl = ElasticSqlConverter.convert(sql);
         System.out.println("SELECT with aggregation DSL: " + dsl);
         assertNotNull(dsl);
-        assertTrue(dsl.contains("value_count"));
-        assertTrue(dsl.contains("_index"));
+        // COUNT(*) 读取命中总数，不生成聚合
+        assertTrue(dsl.contains("\"track_total_hits\":true"));
+        assertFalse(dsl.contains("value_count"));
     }
 
     @Test
@@ -126,11 +149,11 @@ public class ElasticSqlConverterTest {
         String dsl = ElasticSqlConverter.convert(sql);
         System.out.println("SELECT with GROUP BY DSL: " + dsl);
         assertNotNull(dsl);
-        // 验证生成的DSL包含terms聚合（GROUP BY）和value_count聚合（COUNT）
+        // 验证生成的DSL包含terms聚合（GROUP BY），COUNT(*) 读取桶的doc_count
         assertTrue(dsl.contains("terms"));
-        assertTrue(dsl.contains("value_count"));
+        assertFalse(dsl.contains("value_count"));
         assertTrue(dsl.contains("department"));
-        assertTrue(dsl.contains("employee_count"));
+        assertTrue(ElasticSqlConverter.convertToResult(sql).getSelectFields().contains("employee_count"));
         // 验证查询size为0
         assertTrue(dsl.contains("size"));
         assertTrue(dsl.contains("0"));
@@ -165,12 +188,952 @@ public class ElasticSqlConverterTest {
         String dsl = ElasticSqlConverter.convert(sql);
         System.out.println("SELECT with only GROUP BY DSL: " + dsl);
         assertNotNull(dsl);
-        // 验证生成的DSL包含terms聚合，且默认添加了count聚合
+        // 验证生成的DSL包含terms聚合，桶内只需要doc_count，不添加子聚合
         assertTrue(dsl.contains("terms"));
-        assertTrue(dsl.contains("value_count"));
+        assertFalse(dsl.contains("aggs"));
         assertTrue(dsl.contains("department"));
         // 验证查询size为0
         assertTrue(dsl.contains("size"));
         assertTrue(dsl.contains("0"));
     }
-}
\ No newline at end of file
+
+    /**
+     * 测试预编译模板绑定位置参数，结果与直接转换一致
+     */
+    @Test
+    public void testPreparedPositionalParameters() throws Exception {
+        PreparedQuery query = ElasticSqlConverter.prepare(
+                "SELECT id, name FROM users WHERE age > ? AND status = ? LIMIT ? OFFSET ?");
+        String dsl = query.bind(18, "act\"ive", 10, 5);
+        System.out.println("Prepared DSL: " + dsl);
+        assertEquals("users", query.getTableName());
+        assertEquals(4, query.getParameterCount());
+        assertEquals(ElasticSqlConverter.convert(
+                "SELECT id, name FROM users WHERE age > 18 AND status = 'act\"ive' LIMIT 10 OFFSET 5"), dsl);
+        assertFalse(query.bind(21, "vip", 1, 0).contains("$sql2dsl$"));
+    }
+
+    /**
+     * 测试预编译模板绑定命名参数
+     */
+    @Test
+    public void testPreparedNamedParameters() throws Exception {
+        PreparedQuery query = ElasticSqlConverter.prepare("SELECT * FROM users WHERE age > :age OR department = :dept");
+        Map<String, Object> params = new HashMap<>();
+        params.put("age", 30);
+        params.put("dept", "IT");
+        assertEquals(ElasticSqlConverter.convert("SELECT * FROM users WHERE age > 30 OR department = 'IT'"),
+                query.bind(params));
+        assertThrows(IllegalArgumentException.class, () -> query.bind(30, "IT"));
+    }
+
+    /**
+     * 测试不支持的参数位置
+     */
+    @Test
+    public void testPreparedUnsupportedParameterPosition() {
+        assertThrows(UnsupportedOperationException.class, () -> {
+            ElasticSqlConverter.prepare("SELECT COUNT(?) FROM users");
+        });
+    }
+
+    /**
+     * 测试转换缓存：只有字面量不同的SQL共享一个模板，结果与不走缓存时一致
+     */
+    @Test
+    public void testConvertCache() throws Exception {
+        String sql1 = "SELECT * FROM users WHERE age > 18 AND status = 'active' LIMIT 10";
+        String sql2 = "SELECT *  FROM users WHERE age > 21 AND status = 'it''s' LIMIT 20";
+        String expected1 = ElasticSqlConverter.convert(sql1);
+        String expected2 = ElasticSqlConverter.convert(sql2);
+
+        DslCache cache = ElasticSqlConverter.enableCache(100, 1 << 20);
+        try {
+            assertEquals(expected1, ElasticSqlConverter.convert(sql1));
+            assertEquals(expected2, ElasticSqlConverter.convert(sql2));
+            CacheStats stats = cache.stats();
+            System.out.println("Cache stats: " + stats);
+            assertEquals(1, stats.getMissCount());
+            assertEquals(1, stats.getHitCount());
+            assertEquals(1, stats.getEntryCount());
+
+            // SELECT列表中的字面量无法模板化，仍然返回正确结果，再次查到时不计为命中
+            String aggSql = "SELECT COUNT(1) FROM users";
+            cache.clear();
+            assertTrue(ElasticSqlConverter.convert(aggSql).contains("track_total_hits"));
+            assertTrue(ElasticSqlConverter.convert(aggSql).contains("track_total_hits"));
+            assertTrue(ElasticSqlConverter.convert(aggSql).contains("track_total_hits"));
+            stats = cache.stats();
+            assertEquals(1, stats.getHitCount());
+            assertEquals(2, stats.getMissCount());
+            assertEquals(2, stats.getBypassCount());
+            assertEquals(0.2, stats.getHitRate(), 1e-9);
+        } finally {
+            ElasticSqlConverter.disableCache();
+        }
+    }
+
+    /**
+     * 测试缓存按条目数淘汰
+     */
+    @Test
+    public void testConvertCacheEviction() throws Exception {
+        DslCache cache = new DslCache(2, 1 << 20);
+        ConverterConfig config = new ConverterConfig().cache(cache);
+        cache.convert("SELECT * FROM a WHERE x = 1", config);
+        cache.convert("SELECT * FROM b WHERE x = 1", config);
+        cache.convert("SELECT * FROM a WHERE x = 2", config);
+        cache.convert("SELECT * FROM c WHERE x = 1", config);
+        CacheStats stats = cache.stats();
+        assertEquals(2, stats.getEntryCount());
+        assertEquals(1, stats.getEvictionCount());
+        // b最久未使用，已被淘汰
+        cache.convert("SELECT * FROM b WHERE x = 3", config);
+        assertEquals(4, cache.stats().getMissCount());
+    }
+
+    /**
+     * 测试一次解析同时获取索引、DSL和元数据
+     */
+    @Test
+    public void testConvertToResult() throws Exception {
+        String sql = "SELECT id, name AS user_name FROM users WHERE age > 18 LIMIT 20 OFFSET 40";
+        ConversionResult result = ElasticSqlConverter.convertToResult(sql);
+        System.out.println("Conversion result: " + result);
+        assertEquals("users", result.getIndex());
+        assertEquals(ElasticSqlConverter.convert(sql), result.getDsl());
+        assertFalse(result.isAggregation());
+        assertEquals(Arrays.asList("id", "user_name"), result.getSelectFields());
+        assertEquals(Integer.valueOf(40), result.getFrom());
+        assertEquals(Integer.valueOf(20), result.getSize());
+
+        ConversionResult aggResult = ElasticSqlConverter.convertToResult(
+                "SELECT department, COUNT(*) AS cnt FROM users GROUP BY department");
+        assertTrue(aggResult.isAggregation());
+        assertEquals(Integer.valueOf(0), aggResult.getSize());
+    }
+
+    /**
+     * 测试DSL直接流式写入Writer和OutputStream
+     */
+    @Test
+    public void testConvertToWriterAndStream() throws Exception {
+        String sql = "SELECT * FROM users WHERE age > 18 AND status = 'active' ORDER BY name DESC LIMIT 10";
+        String expected = ElasticSqlConverter.convert(sql);
+
+        StringWriter writer = new StringWriter();
+        ConversionResult result = ElasticSqlConverter.convertTo(sql, writer);
+        assertEquals(expected, writer.toString());
+        assertEquals("users", result.getIndex());
+        assertNull(result.getDsl());
+
+        // 复用同一个缓冲区
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        for (int i = 0; i < 2; i++) {
+            buffer.reset();
+            ElasticSqlConverter.convertTo(sql, buffer);
+            assertEquals(expected, new String(buffer.toByteArray(), StandardCharsets.UTF_8));
+        }
+        // 排序字段以JSON对象输出，而不是字符串
+        assertTrue(expected.contains("\"sort\":[{\"name\":\"desc\"}]"));
+    }
+
+    /**
+     * 测试在生成DSL时直接应用输出格式，字段顺序与紧凑输出一致
+     */
+    @Test
+    public void testConvertWithFormat() throws Exception {
+        String sql = "SELECT * FROM users WHERE age > 18 ORDER BY name";
+        String compact = ElasticSqlConverter.convert(sql);
+        String indented = ElasticSqlConverter.convert(sql, new ConverterConfig().format(DslFormat.indent(4)));
+        System.out.println("Indented DSL: " + indented);
+        assertTrue(indented.contains("\n    \"query\" : {"));
+        assertEquals(compact, indented.replaceAll("\\s+", "").replace("\" : ", "\":"));
+        assertTrue(ElasticSqlConverter.convertPretty(sql).indexOf("query") < ElasticSqlConverter.convertPretty(sql).indexOf("sort"));
+
+        // 预编译模板同样使用配置的格式
+        PreparedQuery query = ElasticSqlConverter.prepare("SELECT * FROM users WHERE age > ?",
+                new ConverterConfig().format(DslFormat.PRETTY));
+        assertTrue(query.bind(18).contains("\n"));
+    }
+
+    /**
+     * 测试批量并行转换，结果按输入顺序返回，失败单独报告
+     */
+    @Test
+    public void testConvertAll() throws Exception {
+        List<String> sqls = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            sqls.add("SELECT * FROM users WHERE age > " + i);
+        }
+        sqls.add(10, "UPDATE users SET name = 'John'");
+
+        List<BatchResult> results = ElasticSqlConverter.convertAll(sqls);
+        assertEquals(sqls.size(), results.size());
+        for (int i = 0; i < results.size(); i++) {
+            BatchResult result = results.get(i);
+            assertEquals(i, result.getIndex());
+            if (i == 10) {
+                assertFalse(result.isSuccess());
+                assertTrue(result.getError() instanceof UnsupportedOperationException);
+            } else {
+                assertEquals(ElasticSqlConverter.convert(sqls.get(i)), result.getDsl());
+            }
+        }
+
+        // 流式转换同样按顺序回调
+        List<Integer> order = new ArrayList<>();
+        ElasticSqlConverter.convertEach(sqls, result -> order.add(result.getIndex()));
+        for (int i = 0; i < order.size(); i++) {
+            assertEquals(Integer.valueOf(i), order.get(i));
+        }
+        assertEquals(sqls.size(), order.size());
+
+        // 栈溢出只作为这一条SQL的错误返回
+        String deep = "SELECT * FROM t WHERE " + String.join("", Collections.nCopies(50000, "(")) + "a = 1"
+                + String.join("", Collections.nCopies(50000, ")"));
+        ConverterConfig direct = new ConverterConfig().parseMode(ParseMode.DIRECT).maxNestingDepth(100000);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            List<BatchResult> deepResults = BatchConverter.convertAll(
+                    Arrays.asList("SELECT * FROM t", deep, "SELECT * FROM u"), direct, executor);
+            assertTrue(deepResults.get(0).isSuccess());
+            assertTrue(deepResults.get(1).getError() instanceof StackOverflowError);
+            assertTrue(deepResults.get(2).isSuccess());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testParseModes() throws Exception {
+        String[] sqls = {
+                "SELECT * FROM users",
+                "SELECT name, age AS a FROM users WHERE age >= 18 AND (city = 'Beijing' OR city = 'Shang''hai')",
+                "SELECT * FROM users WHERE score < 9.5 OR name <> 'Tom' ORDER BY age DESC, name LIMIT 10 OFFSET 5",
+                "SELECT * FROM users WHERE age > ? AND name = :name LIMIT ?",
+                "SELECT city, COUNT(*) FROM users GROUP BY city",
+                "SELECT * FROM users WHERE users.age > 18 LIMIT 5, 10"
+        };
+        ConverterConfig direct = new ConverterConfig().parseMode(ParseMode.DIRECT);
+        ConverterConfig fastPath = new ConverterConfig().parseMode(ParseMode.FAST_PATH);
+        for (String sql : sqls) {
+            String expected = ElasticSqlConverter.convert(sql);
+            assertEquals(expected, ElasticSqlConverter.convert(sql, direct), sql);
+            assertEquals(expected, ElasticSqlConverter.convert(sql, fastPath), sql);
+        }
+
+        String sql = "SELECT * FROM users WHERE age > ? AND name = ? LIMIT ?";
+        assertEquals(ElasticSqlConverter.prepare(sql).bind(18, "Tom", 10),
+                ElasticSqlConverter.prepare(sql, fastPath).bind(18, "Tom", 10));
+        assertEquals("users", ElasticSqlConverter.getTableName("UPDATE users SET name = 'John'", fastPath));
+
+        // 超出长度或嵌套深度限制的SQL直接拒绝
+        ConverterConfig limited = new ConverterConfig().parseMode(ParseMode.DIRECT).maxSqlLength(40).maxNestingDepth(2);
+        assertThrows(Exception.class, () -> ElasticSqlConverter.convert(
+                "SELECT * FROM users WHERE name = 'a long enough literal value'", limited));
+        assertThrows(Exception.class, () -> ElasticSqlConverter.convert(
+                "SELECT * FROM t WHERE (((a = 1)))", limited));
+        assertNotNull(ElasticSqlConverter.convert("SELECT * FROM t WHERE ((a = '(((('))", limited));
+        assertThrows(IllegalArgumentException.class, () -> new ConverterConfig().maxSqlLength(0));
+        assertThrows(IllegalArgumentException.class, () -> new ConverterConfig().maxNestingDepth(-1));
+
+        // 不带括号的长条件链在限制之内，不会栈溢出
+        StringBuilder chain = new StringBuilder("SELECT * FROM t WHERE a = 0");
+        for (int i = 1; i < 5000; i++) {
+            chain.append(i % 3 == 0 ? " AND b = " : " OR a = ").append(i);
+        }
+        for (ConverterConfig config : new ConverterConfig[]{direct, fastPath}) {
+            assertTrue(ElasticSqlConverter.convert(chain.toString(), config).contains("\"terms\""));
+        }
+    }
+
+    /**
+     * 测试过滤上下文、评分上下文以及否定条件
+     */
+    @Test
+    public void testQueryContext() throws Exception {
+        String sql = "SELECT * FROM users WHERE age > 18 AND status = 'active' AND city != 'Beijing'";
+        assertEquals("{\"query\":{\"bool\":{\"filter\":[{\"range\":{\"age\":{\"gt\":18}}},"
+                        + "{\"term\":{\"status\":\"active\"}}],"
+                        + "\"must_not\":[{\"term\":{\"city\":\"Beijing\"}}]}},\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert(sql));
+
+        ConverterConfig scoring = new ConverterConfig().queryContext(QueryContext.SCORING);
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"range\":{\"age\":{\"gt\":18}}},"
+                        + "{\"term\":{\"status\":\"active\"}}],"
+                        + "\"must_not\":[{\"term\":{\"city\":\"Beijing\"}}]}},\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert(sql, scoring));
+
+        // 单个条件包装在constant_score中，单独的否定条件直接使用must_not
+        assertEquals("{\"query\":{\"constant_score\":{\"filter\":{\"term\":{\"status\":\"active\"}}}},"
+                        + "\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM users WHERE status = 'active'"));
+        assertEquals("{\"query\":{\"bool\":{\"must_not\":[{\"term\":{\"status\":\"active\"}}]}},"
+                        + "\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM users WHERE NOT (status = 'active')"));
+
+        // 无法转换的条件不能取反，否则会变成match_none
+        for (ConverterConfig config : Arrays.asList(new ConverterConfig(),
+                new ConverterConfig().optimizePredicates(false))) {
+            assertThrows(UnsupportedOperationException.class, () -> ElasticSqlConverter.convert(
+                    "SELECT * FROM t WHERE NOT EXISTS (SELECT 1 FROM u)", config));
+            assertThrows(UnsupportedOperationException.class, () -> ElasticSqlConverter.convert(
+                    "SELECT * FROM t WHERE a = 1 AND NOT (b = 2 OR EXISTS (SELECT 1 FROM u))", config));
+        }
+    }
+
+    /**
+     * 测试条件改写：展开嵌套条件、合并范围、OR合并为terms、去掉重复和矛盾的条件
+     */
+    @Test
+    public void testPredicateOptimizer() throws Exception {
+        assertEquals("{\"query\":{\"bool\":{\"filter\":[{\"term\":{\"a\":1}},{\"term\":{\"b\":2}},"
+                        + "{\"term\":{\"c\":3}}]}},\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE (a = 1 AND (b = 2 AND c = 3)) AND a = 1"));
+        assertEquals("{\"query\":{\"constant_score\":{\"filter\":{\"bool\":{\"should\":["
+                        + "{\"terms\":{\"a\":[1,2,3]}},{\"term\":{\"b\":\"x\"}}],"
+                        + "\"minimum_should_match\":1}}}},\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE a = 1 OR (a = 2 OR a = 3) OR b = 'x'"));
+        assertEquals("{\"query\":{\"constant_score\":{\"filter\":{\"range\":{\"age\":{\"gte\":20,\"lt\":65}}}}},"
+                        + "\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE age > 18 AND age < 65 AND age >= 20"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE age > 18 AND age < 5").contains("match_none"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE a = 1 AND a = 2").contains("match_none"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE a = 1 OR a = 1 OR b = 2 OR b = 2")
+                .contains("\"should\":[{\"term\":{\"a\":1}},{\"term\":{\"b\":2}}]"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE a IN (1, 2, 3) AND a IN (3, 2, 5)")
+                .contains("{\"filter\":{\"terms\":{\"a\":[2,3]}}}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE a IN (1, 2) AND a IN (3, 4)")
+                .contains("match_none"));
+
+        // 数字字面量在=、范围、IN和OR合并中都写为JSON数字
+        assertEquals(ElasticSqlConverter.convert("SELECT * FROM t WHERE a IN (1, 2)"),
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE a = 1 OR a = 2"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE a IN (1, 2) OR a = 3 OR a = '4'")
+                .contains("{\"terms\":{\"a\":[1,2,3,\"4\"]}}"));
+
+        // 长的OR链一次展开，改写耗时与条件数成线性关系
+        StringBuilder chain = new StringBuilder("SELECT * FROM t WHERE a0 = 0");
+        for (int i = 1; i < 2000; i++) {
+            chain.append(" OR a").append(i % 50).append(" = ").append(i);
+        }
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> assertEquals(50,
+                ElasticSqlConverter.convert(chain.toString(), new ConverterConfig().parseMode(ParseMode.FAST_PATH))
+                        .split("\"terms\"").length - 1));
+
+        // 关闭改写时保持一一对应的输出
+        ConverterConfig plain = new ConverterConfig().optimizePredicates(false);
+        assertEquals(2, ElasticSqlConverter.convert("SELECT * FROM t WHERE age > 18 AND age < 65", plain)
+                .split("\"range\"").length - 1);
+
+        // 参数的值未知，只合并上下界，不做比较
+        PreparedQuery query = ElasticSqlConverter.prepare("SELECT * FROM t WHERE age > ? AND age < ? AND age < ?");
+        assertEquals("{\"query\":{\"bool\":{\"filter\":[{\"range\":{\"age\":{\"gt\":18,\"lt\":65}}},"
+                        + "{\"range\":{\"age\":{\"lt\":60}}}]}},\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                query.bind(18, 65, 60));
+
+        // 依赖字面量值的形状不缓存模板，结果与直接转换一致
+        String sql = "SELECT * FROM t WHERE age > 18 AND age < 5";
+        String expected = ElasticSqlConverter.convert(sql);
+        DslCache cache = new DslCache(10, 1 << 20);
+        ConverterConfig cached = new ConverterConfig().cache(cache);
+        assertEquals(expected, ElasticSqlConverter.convert(sql, cached));
+        assertEquals(ElasticSqlConverter.convert("SELECT * FROM t WHERE age > 1 AND age < 5"),
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE age > 1 AND age < 5", cached));
+    }
+
+    /**
+     * 测试按语法树识别聚合函数，列名中包含函数名时不当作聚合
+     */
+    @Test
+    public void testSelectItemsAreTyped() throws Exception {
+        ConversionResult result = ElasticSqlConverter.convertToResult("SELECT discount, summary FROM orders");
+        assertFalse(result.isAggregation());
+        assertEquals(Arrays.asList("discount", "summary"), result.getSelectFields());
+
+        String dsl = ElasticSqlConverter.convert("SELECT MAX(o.price) AS maxPrice, count(1) FROM orders o");
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"from\":0,\"size\":0,"
+                + "\"track_total_hits\":true,\"aggregations\":{\"maxPrice\":{\"max\":{\"field\":\"price\"}}}}", dsl);
+
+        // 条件按语法树转换：字面量在左边时交换两边，字符串取转义后的内容，负数按数值比较
+        assertEquals(ElasticSqlConverter.convert("SELECT * FROM t WHERE a > 5 AND b <= 3"),
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE 5 < a AND 3 >= b"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name = 'it''s'")
+                .contains("{\"term\":{\"name\":\"it's\"}}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE a = -5 AND a > -3").contains("match_none"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE active = TRUE")
+                .contains("{\"term\":{\"active\":\"true\"}}"));
+        for (String where : new String[]{"a = b", "UPPER(b) = 'X'", "a + 1 > 3", "a = NULL", "1 = 1"}) {
+            assertThrows(UnsupportedOperationException.class,
+                    () -> ElasticSqlConverter.convert("SELECT * FROM t WHERE " + where), where);
+        }
+    }
+
+    /**
+     * 测试聚合编译：同一字段的多个聚合合并为stats/extended_stats，COUNT(*) 使用doc_count
+     */
+    @Test
+    public void testAggregationCompiler() throws Exception {
+        String dsl = ElasticSqlConverter.convert("SELECT dept, COUNT(*) AS cnt, MIN(salary), MAX(salary), AVG(salary), "
+                + "SUM(bonus) AS total_bonus FROM users GROUP BY dept");
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"from\":0,\"size\":0,"
+                + "\"aggregations\":{\"group_by_dept\":{\"terms\":{\"field\":\"dept\"},\"aggs\":{"
+                + "\"stats_salary\":{\"stats\":{\"field\":\"salary\"}},"
+                + "\"total_bonus\":{\"sum\":{\"field\":\"bonus\"}}}}}}", dsl);
+
+        dsl = ElasticSqlConverter.convert("SELECT AVG(price), STDDEV(price) AS sd FROM orders");
+        assertTrue(dsl.contains("\"extended_stats_price\":{\"extended_stats\":{\"field\":\"price\"}}"));
+        assertFalse(dsl.contains("track_total_hits"));
+
+        QueryModel model = QueryModelBuilder.build((PlainSelect) CCJSqlParserUtil.parse("SELECT dept, "
+                + "COUNT(*) AS cnt, MIN(salary), MAX(salary), STDDEV_SAMP(salary) FROM users GROUP BY dept"),
+                new ConverterConfig());
+        assertEquals("[cnt=doc_count, min(salary)=extended_stats_salary.min, max(salary)=extended_stats_salary.max, "
+                        + "stddev_samp(salary)=extended_stats_salary.std_deviation_sampling]",
+                AggregationCompiler.compile(model, new ConverterConfig()).getRefs().toString());
+
+        // 合并后的聚合名称不能与别名重复
+        dsl = ElasticSqlConverter.convert("SELECT MIN(s), MAX(s), SUM(x) AS stats_s, AVG(y) AS stats_s_1, "
+                + "AVG(s) AS stats_s_2 FROM t GROUP BY g");
+        assertTrue(dsl.contains("\"stats_s\":{\"sum\":{\"field\":\"x\"}}"));
+        assertTrue(dsl.contains("\"stats_s_1\":{\"avg\":{\"field\":\"y\"}}"));
+        assertTrue(dsl.contains("\"stats_s_3\":{\"stats\":{\"field\":\"s\"}}"));
+    }
+
+    /**
+     * 测试composite聚合模式和after_key分页
+     */
+    @Test
+    public void testCompositeCursor() throws Exception {
+        String sql = "SELECT user_id, day, SUM(amount) AS total FROM orders WHERE amount > 0 GROUP BY user_id, day";
+        CompositeCursor cursor = ElasticSqlConverter.compositeCursor(sql, new ConverterConfig().compositeSize(2));
+        assertEquals("orders", cursor.getIndex());
+        String first = cursor.firstPage();
+        assertEquals("{\"query\":{\"constant_score\":{\"filter\":{\"range\":{\"amount\":{\"gt\":0}}}}},"
+                + "\"from\":0,\"size\":0,\"aggregations\":{\"group_by\":{\"composite\":{\"size\":2,\"sources\":["
+                + "{\"user_id\":{\"terms\":{\"field\":\"user_id\"}}},{\"day\":{\"terms\":{\"field\":\"day\"}}}]},"
+                + "\"aggs\":{\"total\":{\"sum\":{\"field\":\"amount\"}}}}}}", first);
+        assertEquals(first, ElasticSqlConverter.convert(sql,
+                new ConverterConfig().groupByMode(GroupByMode.COMPOSITE).compositeSize(2)));
+
+        String response = "{\"took\":3,\"hits\":{\"total\":{\"value\":5},\"hits\":[]},\"aggregations\":{"
+                + "\"group_by\":{\"after_key\":{\"user_id\":\"u2\",\"day\":1704067200000},\"buckets\":["
+                + "{\"key\":{\"user_id\":\"u1\",\"day\":1704067200000},\"doc_count\":3,\"total\":{\"value\":9.5}},"
+                + "{\"key\":{\"user_id\":\"u2\",\"day\":1704067200000},\"doc_count\":2,\"total\":{\"value\":4.0}}]}}}";
+        String next = cursor.nextPage(response);
+        assertTrue(next.contains("\"after\":{\"user_id\":\"u2\",\"day\":1704067200000}"));
+
+        // HAVING过滤掉整页的桶时继续翻页，没有after_key时分页结束
+        assertTrue(cursor.nextPage("{\"aggregations\":{\"group_by\":{\"after_key\":{\"user_id\":\"u4\","
+                + "\"day\":1704067200000},\"buckets\":[]}}}").contains("\"after\":{\"user_id\":\"u4\""));
+        assertNull(cursor.nextPage("{\"aggregations\":{\"group_by\":{\"buckets\":[]}}}"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.compositeCursor("SELECT SUM(amount) FROM orders"));
+    }
+
+    @Test
+    public void testSearchAfterCursor() throws Exception {
+        String sql = "SELECT id, name FROM users WHERE age > 18 ORDER BY created_at DESC LIMIT 2";
+        SearchAfterCursor cursor = ElasticSqlConverter.searchAfterCursor(sql, "pit-1");
+        assertEquals("users", cursor.getIndex());
+        assertEquals(2, cursor.getPageSize());
+        assertEquals("{\"query\":{\"constant_score\":{\"filter\":{\"range\":{\"age\":{\"gt\":18}}}}},"
+                + "\"size\":2,\"_source\":{\"includes\":[\"id\",\"name\"]},\"track_total_hits\":false,"
+                + "\"sort\":[{\"created_at\":\"desc\"},{\"_shard_doc\":\"asc\"}],"
+                + "\"pit\":{\"id\":\"pit-1\",\"keep_alive\":\"1m\"}}", cursor.firstPage());
+
+        // 读取最后一条结果的sort值和新的pit_id
+        String response = "{\"pit_id\":\"pit-2\",\"took\":1,\"hits\":{\"total\":{\"value\":0},\"hits\":["
+                + "{\"_id\":\"1\",\"_source\":{\"name\":\"a\"},\"sort\":[1704067200000,7]},"
+                + "{\"_id\":\"2\",\"_source\":{\"name\":\"b\"},\"sort\":[1704067100000,12]}]}}";
+        String next = cursor.nextPage(response);
+        assertTrue(next.contains("\"search_after\":[1704067100000,12]"));
+        assertTrue(next.contains("\"pit\":{\"id\":\"pit-2\""));
+        assertFalse(next.contains("\"from\""));
+        assertNull(cursor.nextPage("{\"hits\":{\"hits\":[{\"_id\":\"3\",\"sort\":[1,3]}]}}"));
+
+        // 不使用PIT时由配置的唯一字段排序，没有LIMIT时使用配置的每页条数
+        ConverterConfig config = new ConverterConfig().tiebreakerField("id").searchAfterSize(500);
+        SearchAfterCursor plain = ElasticSqlConverter.searchAfterCursor("SELECT * FROM users ORDER BY id", config);
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"size\":500,"
+                + "\"track_total_hits\":false,\"sort\":[{\"id\":\"asc\"}],\"search_after\":[\"u9\"]}",
+                plain.page(Collections.singletonList("u9")));
+
+        assertThrows(IllegalArgumentException.class,
+                () -> ElasticSqlConverter.searchAfterCursor("SELECT * FROM users", new ConverterConfig()));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.searchAfterCursor("SELECT * FROM users LIMIT 10 OFFSET 20", "pit-1"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.searchAfterCursor("SELECT COUNT(*) FROM users", "pit-1"));
+    }
+
+    /**
+     * 测试SELECT字段列表转换为_source过滤或docvalue_fields/fields
+     */
+    @Test
+    public void testProjection() throws Exception {
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"from\":0,\"size\":10,"
+                        + "\"_source\":{\"includes\":[\"id\",\"name\"]},\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT id, u.name AS n FROM users u LIMIT 10"));
+
+        // SELECT * 和表达式返回完整文档
+        assertFalse(ElasticSqlConverter.convert("SELECT * FROM users").contains("_source"));
+        assertFalse(ElasticSqlConverter.convert("SELECT id, UPPER(name) FROM users").contains("_source"));
+
+        assertTrue(ElasticSqlConverter.convert("SELECT id, age FROM users",
+                new ConverterConfig().projectionMode(ProjectionMode.DOCVALUE_FIELDS))
+                .contains("\"_source\":false,\"docvalue_fields\":[\"id\",\"age\"]"));
+        assertTrue(ElasticSqlConverter.convert("SELECT id, age FROM users",
+                new ConverterConfig().projectionMode(ProjectionMode.FIELDS))
+                .contains("\"_source\":false,\"fields\":[\"id\",\"age\"]"));
+
+        // 需要命中总数时不输出track_total_hits，聚合查询不受影响
+        assertFalse(ElasticSqlConverter.convert("SELECT * FROM users", new ConverterConfig().trackTotalHits(true))
+                .contains("track_total_hits"));
+        assertFalse(ElasticSqlConverter.convert("SELECT dept, MAX(age) FROM users GROUP BY dept")
+                .contains("_source"));
+    }
+
+    /**
+     * 测试只统计命中数的COUNT(*) 查询
+     */
+    @Test
+    public void testCountOnly() throws Exception {
+        String sql = "SELECT COUNT(*) AS total FROM users WHERE status = 'active' LIMIT 10";
+        ConversionResult result = ElasticSqlConverter.convertToResult(sql);
+        assertTrue(result.isCountOnly());
+        assertEquals("{\"query\":{\"constant_score\":{\"filter\":{\"term\":{\"status\":\"active\"}}}},"
+                + "\"size\":0,\"track_total_hits\":true}", result.getDsl());
+
+        // _count请求体只包含查询条件
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}}}",
+                ElasticSqlConverter.convert("SELECT count(1) FROM users", new ConverterConfig().countEndpoint(true)));
+
+        assertFalse(ElasticSqlConverter.convertToResult("SELECT COUNT(*), MAX(age) FROM users").isCountOnly());
+        assertFalse(ElasticSqlConverter.convertToResult("SELECT dept, COUNT(*) FROM users GROUP BY dept").isCountOnly());
+        assertFalse(ElasticSqlConverter.convertToResult("SELECT COUNT(age) FROM users").isCountOnly());
+    }
+
+    /**
+     * 测试IN/NOT IN转换为terms，超长列表拆分，子查询转换为terms lookup
+     */
+    @Test
+    public void testInExpression() throws Exception {
+        assertEquals("{\"query\":{\"bool\":{\"filter\":[{\"term\":{\"a\":1}}],"
+                        + "\"must_not\":[{\"terms\":{\"id\":[1,\"x\"]}}]}},\"from\":0,\"size\":1,"
+                        + "\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE id NOT IN (1, 'x') AND a = 1"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE id IN (5)").contains("{\"term\":{\"id\":5}}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE price IN (1.5, -2, '3')")
+                .contains("{\"terms\":{\"price\":[1.5,-2,\"3\"]}}"));
+
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE id IN (1, 2, 3, 4, 5)",
+                new ConverterConfig().maxTermsCount(2)).contains("{\"bool\":{\"should\":[{\"terms\":{\"id\":[1,2]}},"
+                + "{\"terms\":{\"id\":[3,4]}},{\"terms\":{\"id\":[5]}}],\"minimum_should_match\":1}}"));
+
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE id IN (SELECT ids FROM id_sets WHERE _id = 'set-1')")
+                .contains("{\"terms\":{\"id\":{\"index\":\"id_sets\",\"id\":\"set-1\",\"path\":\"ids\"}}}"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT * FROM t WHERE id IN (SELECT id FROM u WHERE age > 1)"));
+
+        // IN中的参数按绑定值的类型输出，经过缓存的转换与直接转换结果相同
+        assertTrue(ElasticSqlConverter.prepare("SELECT * FROM t WHERE id IN (?, ?)").bind(7, "8")
+                .contains("{\"terms\":{\"id\":[7,\"8\"]}}"));
+        ConverterConfig cached = new ConverterConfig().cache(new DslCache(16, 1 << 20));
+        for (String sql : new String[]{"SELECT * FROM t WHERE id IN (1, '2', 3.50)",
+                "SELECT * FROM t WHERE id IN ('1', 2, '3.50')", "SELECT * FROM t WHERE id IN (007, 8)"}) {
+            assertEquals(ElasticSqlConverter.convert(sql), ElasticSqlConverter.convert(sql, cached));
+        }
+    }
+
+    /**
+     * 测试LIKE按模式形状选择查询，BETWEEN转换为range，IS NULL转换为exists
+     */
+    @Test
+    public void testLikeBetweenIsNull() throws Exception {
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name LIKE 'abc%'")
+                .contains("{\"prefix\":{\"name\":\"abc\"}}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name LIKE 'abc'")
+                .contains("{\"term\":{\"name\":\"abc\"}}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name LIKE 'a_c%'")
+                .contains("{\"wildcard\":{\"name\":\"a?c*\"}}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name LIKE 'x!%%' ESCAPE '!'")
+                .contains("{\"prefix\":{\"name\":\"x%\"}}"));
+
+        // 以通配符开头的模式给出警告，配置倒序子字段后改用prefix
+        ConversionResult result = ElasticSqlConverter.convertToResult("SELECT * FROM t WHERE name LIKE '%abc'");
+        assertTrue(result.getDsl().contains("{\"wildcard\":{\"name\":\"*abc\"}}"));
+        assertEquals(1, result.getWarnings().size());
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name LIKE '%abc'",
+                new ConverterConfig().reverseFieldSuffix(".reversed"))
+                .contains("{\"prefix\":{\"name.reversed\":\"cba\"}}"));
+
+        assertEquals("{\"query\":{\"constant_score\":{\"filter\":{\"range\":{\"age\":{\"gt\":20,\"lte\":30}}}}},"
+                        + "\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE age BETWEEN 18 AND 30 AND age > 20"));
+        assertEquals("{\"query\":{\"bool\":{\"filter\":[{\"exists\":{\"field\":\"a\"}}],"
+                        + "\"must_not\":[{\"exists\":{\"field\":\"b\"}}]}},\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM t WHERE a IS NOT NULL AND b IS NULL"));
+
+        // 无法转换的条件不会被丢弃或放宽为match_all
+        for (String where : new String[]{"a = 1 AND EXISTS (SELECT 1 FROM u)",
+                "a = 1 OR CASE WHEN b = 1 THEN TRUE ELSE FALSE END", "active"}) {
+            for (ParseMode mode : ParseMode.values()) {
+                assertThrows(UnsupportedOperationException.class, () -> ElasticSqlConverter.convert(
+                        "SELECT * FROM t WHERE " + where, new ConverterConfig().parseMode(mode)), where);
+            }
+        }
+
+        // 缓存按LIKE模式区分形状
+        DslCache cache = new DslCache(10, 1 << 20);
+        ConverterConfig cached = new ConverterConfig().cache(cache);
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name LIKE 'ab%'", cached).contains("prefix"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM t WHERE name LIKE '%ab'", cached).contains("wildcard"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.prepare("SELECT * FROM t WHERE name LIKE ?"));
+    }
+
+    /**
+     * 测试按索引映射输出带类型的比较值，text字段使用keyword子字段
+     */
+    @Test
+    public void testSchemaRegistry() throws Exception {
+        SchemaRegistry registry = new SchemaRegistry().register("users", "{\"users\":{\"mappings\":{\"properties\":{"
+                + "\"age\":{\"type\":\"integer\"},\"active\":{\"type\":\"boolean\"},\"created\":{\"type\":\"date\"},"
+                + "\"name\":{\"type\":\"text\",\"fields\":{\"keyword\":{\"type\":\"keyword\"}}},\"bio\":{\"type\":\"text\"}}}}}");
+        ConverterConfig config = new ConverterConfig().schemaRegistry(registry);
+
+        assertEquals("{\"query\":{\"bool\":{\"filter\":[{\"range\":{\"age\":{\"gt\":18}}},{\"term\":{\"active\":true}},"
+                        + "{\"term\":{\"name.keyword\":\"Bob\"}},{\"range\":{\"created\":{\"gte\":\"2024-01-01\"}}}]}},"
+                        + "\"from\":0,\"size\":1,\"track_total_hits\":false}",
+                ElasticSqlConverter.convert("SELECT * FROM users WHERE age > 18 AND active = true AND name = 'Bob' "
+                        + "AND created >= '2024-01-01'", config));
+        assertTrue(ElasticSqlConverter.convert("SELECT name, COUNT(*) FROM users GROUP BY name", config)
+                .contains("\"group_by_name\":{\"terms\":{\"field\":\"name.keyword\"}}"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT bio, COUNT(*) FROM users GROUP BY bio", config));
+
+        // 预编译模板按字段类型填充参数
+        PreparedQuery query = ElasticSqlConverter.prepare("SELECT * FROM users WHERE age > ? AND active = ?", config);
+        assertTrue(query.bind(21, "TRUE").contains("[{\"range\":{\"age\":{\"gt\":21}}},{\"term\":{\"active\":true}}]"));
+
+        // 没有映射的索引保持原样，目录中的映射按需读取
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM orders WHERE amount > '5'", config)
+                .contains("\"gt\":\"5\""));
+        Path dir = Files.createTempDirectory("mappings");
+        Files.write(dir.resolve("orders.json"),
+                "{\"properties\":{\"amount\":{\"type\":\"double\"}}}".getBytes("UTF-8"));
+        assertTrue(ElasticSqlConverter.convert("SELECT * FROM orders WHERE amount > '5'",
+                new ConverterConfig().schemaRegistry(new SchemaRegistry(dir))).contains("\"gt\":5"));
+    }
+
+    /**
+     * 测试GROUP BY的ORDER BY/LIMIT下推和HAVING
+     */
+    @Test
+    public void testTopNAndHaving() throws Exception {
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"from\":0,\"size\":0,"
+                        + "\"aggregations\":{\"group_by_dept\":{\"terms\":{\"field\":\"dept\",\"size\":5,"
+                        + "\"order\":{\"_count\":\"desc\"}}}}}",
+                ElasticSqlConverter.convert("SELECT dept, COUNT(*) AS cnt FROM users GROUP BY dept "
+                        + "ORDER BY cnt DESC LIMIT 5"));
+
+        // 多个排序、stats中的指标和OFFSET
+        String offset = ElasticSqlConverter.convert("SELECT dept, SUM(age) AS total, AVG(age) FROM users "
+                + "GROUP BY dept ORDER BY AVG(age) DESC, dept LIMIT 3 OFFSET 6", new ConverterConfig().shardSize(50));
+        assertTrue(offset.contains("\"terms\":{\"field\":\"dept\",\"size\":9,\"shard_size\":50,"
+                + "\"order\":[{\"stats_age.avg\":\"desc\"},{\"_key\":\"asc\"}]}"));
+        assertTrue(offset.contains("\"limit\":{\"bucket_sort\":{\"from\":6}}"));
+
+        // HAVING中的聚合函数不必出现在SELECT中，过滤后再按LIMIT截取
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"from\":0,\"size\":0,"
+                        + "\"aggregations\":{\"group_by_dept\":{\"terms\":{\"field\":\"dept\",\"size\":10000},"
+                        + "\"aggs\":{\"max(age)\":{\"max\":{\"field\":\"age\"}},"
+                        + "\"having\":{\"bucket_selector\":{\"buckets_path\":{\"v0\":\"_count\",\"v1\":\"max(age)\"},"
+                        + "\"script\":{\"source\":\"params.v0 > params.p0 && (params.v1 >= params.p1 || params.v0 == params.p2)\","
+                        + "\"params\":{\"p0\":10,\"p1\":60.5,\"p2\":1}}}},"
+                        + "\"limit\":{\"bucket_sort\":{\"size\":20}}}}}}",
+                ElasticSqlConverter.convert("SELECT dept, COUNT(*) c FROM users GROUP BY dept "
+                        + "HAVING c > 10 AND (MAX(age) >= 60.5 OR COUNT(*) = 1) LIMIT 20"));
+
+        // 预编译模板中HAVING的参数按数字填充
+        assertTrue(ElasticSqlConverter.prepare("SELECT dept, COUNT(*) c FROM users GROUP BY dept HAVING c > ? LIMIT ?")
+                .bind(5, 7).contains("\"params\":{\"p0\":5}}}},\"limit\":{\"bucket_sort\":{\"size\":7}}"));
+
+        // 多层GROUP BY不下推，给出警告
+        ConversionResult nested = ElasticSqlConverter.convertToResult(
+                "SELECT dept, city, COUNT(*) FROM users GROUP BY dept, city LIMIT 10");
+        assertFalse(nested.getDsl().contains("\"size\":10"));
+        assertEquals(1, nested.getWarnings().size());
+
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT COUNT(*) FROM users HAVING COUNT(*) > 1"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT dept, COUNT(*) FROM users GROUP BY dept HAVING name = 'a'"));
+
+        // 多个GROUP BY字段的HAVING不能在嵌套terms中取出全部桶，需要使用composite聚合
+        String multiLevel = "SELECT a, b, COUNT(*) FROM t GROUP BY a, b HAVING COUNT(*) > 5";
+        assertThrows(UnsupportedOperationException.class, () -> ElasticSqlConverter.convert(multiLevel));
+        String composite = ElasticSqlConverter.convert(multiLevel,
+                new ConverterConfig().groupByMode(GroupByMode.COMPOSITE));
+        assertTrue(composite.contains("\"bucket_selector\""));
+        assertFalse(composite.contains("\"size\":10000"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT dept, COUNT(*) FROM users GROUP BY dept ORDER BY age"));
+    }
+
+    /**
+     * 测试按时间和数值区间分桶
+     */
+    @Test
+    public void testHistogramGroupBy() throws Exception {
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"from\":0,\"size\":0,"
+                        + "\"aggregations\":{\"group_by_h\":{\"date_histogram\":{\"field\":\"ts\","
+                        + "\"calendar_interval\":\"hour\",\"time_zone\":\"+08:00\",\"min_doc_count\":1,"
+                        + "\"order\":{\"_key\":\"desc\"}},\"aggs\":{\"limit\":{\"bucket_sort\":{\"size\":24}}}}}}",
+                ElasticSqlConverter.convert("SELECT DATE_TRUNC('hour', ts) AS h, COUNT(*) FROM logs GROUP BY h "
+                        + "ORDER BY h DESC LIMIT 24", new ConverterConfig().timeZone("+08:00")));
+
+        assertTrue(ElasticSqlConverter.convert("SELECT DATE_FORMAT(ts, '%Y-%m-%d') d, SUM(bytes) FROM logs "
+                        + "GROUP BY DATE_FORMAT(ts, '%Y-%m-%d')")
+                .contains("\"group_by_d\":{\"date_histogram\":{\"field\":\"ts\",\"calendar_interval\":\"day\","
+                        + "\"format\":\"yyyy-MM-dd\",\"min_doc_count\":1}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT HISTOGRAM(ts, INTERVAL 5 MINUTE) m, COUNT(*) FROM logs GROUP BY m")
+                .contains("{\"field\":\"ts\",\"fixed_interval\":\"5m\",\"min_doc_count\":1}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT HISTOGRAM(price, 10) p, COUNT(*) FROM items GROUP BY p")
+                .contains("\"histogram\":{\"field\":\"price\",\"interval\":10,\"min_doc_count\":1}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT DATE_TRUNC('day', ts, 'UTC') d, COUNT(*) FROM logs GROUP BY d",
+                        new ConverterConfig().groupByMode(GroupByMode.COMPOSITE))
+                .contains("\"sources\":[{\"d\":{\"date_histogram\":{\"field\":\"ts\",\"calendar_interval\":\"day\","
+                        + "\"time_zone\":\"UTC\"}}}]"));
+
+        assertTrue(ElasticSqlConverter.convert("SELECT DATE_FORMAT(ts, '%Y-%m-%d %H:00') h, COUNT(*) FROM logs "
+                        + "GROUP BY h")
+                .contains("\"calendar_interval\":\"hour\",\"format\":\"yyyy-MM-dd HH:00\""));
+        assertTrue(ElasticSqlConverter.convert("SELECT DATE_FORMAT(ts, '%Y%m') m, COUNT(*) FROM logs GROUP BY m")
+                .contains("\"calendar_interval\":\"month\",\"format\":\"yyyyMM\""));
+        assertTrue(ElasticSqlConverter.convert("SELECT DATE_FORMAT(ts, '%Y-%j') d, COUNT(*) FROM logs GROUP BY d")
+                .contains("\"calendar_interval\":\"day\""));
+        assertTrue(ElasticSqlConverter.convert("SELECT DATE_FORMAT(ts, '%W %Y-%m-%d %h %p') h, COUNT(*) FROM logs "
+                        + "GROUP BY h")
+                .contains("\"calendar_interval\":\"hour\""));
+        // 周期性的模式跨年、跨天合并分组，不能转换为date_histogram
+        for (String pattern : new String[]{"%H", "%W", "%a", "%m", "%d", "%m-%d", "%Y-%d", "%Y-%m-%d %i",
+                "%Y-%m-%d %h", "%Y-%m %W"}) {
+            assertThrows(UnsupportedOperationException.class, () -> ElasticSqlConverter.convert(
+                    "SELECT DATE_FORMAT(ts, '" + pattern + "') k, COUNT(*) FROM logs GROUP BY k"), pattern);
+        }
+        assertThrows(UnsupportedOperationException.class, () -> ElasticSqlConverter.convert(
+                "SELECT HISTOGRAM(ts, INTERVAL 2 MONTH) m, COUNT(*) FROM logs GROUP BY m"));
+        assertThrows(UnsupportedOperationException.class, () -> ElasticSqlConverter.convert(
+                "SELECT UPPER(name) n, COUNT(*) FROM users GROUP BY n"));
+    }
+
+    /**
+     * 测试去重计数和百分位数
+     */
+    @Test
+    public void testApproximateAggregations() throws Exception {
+        assertEquals("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},\"from\":0,\"size\":0,"
+                        + "\"aggregations\":{\"users\":{\"cardinality\":{\"field\":\"user_id\",\"precision_threshold\":3000}},"
+                        + "\"approx_count_distinct(ip)\":{\"cardinality\":{\"field\":\"ip\",\"precision_threshold\":3000}}}}",
+                ElasticSqlConverter.convert("SELECT COUNT(DISTINCT user_id) AS users, APPROX_COUNT_DISTINCT(ip) FROM logs",
+                        new ConverterConfig().precisionThreshold(3000)));
+
+        // 同一字段上的百分位数合并为一个percentiles聚合，按百分位数排序
+        String percentiles = ElasticSqlConverter.convert("SELECT host, PERCENTILE_APPROX(latency, 0.95) p95, "
+                + "PERCENTILE_APPROX(latency, 0.999), MEDIAN(latency) FROM logs GROUP BY host ORDER BY p95 DESC LIMIT 5",
+                new ConverterConfig().tdigestCompression(200));
+        assertTrue(percentiles.contains("\"order\":{\"percentiles_latency[95.0]\":\"desc\"}"));
+        assertTrue(percentiles.contains("\"percentiles_latency\":{\"percentiles\":{\"field\":\"latency\","
+                + "\"percents\":[95.0,99.9,50.0],\"tdigest\":{\"compression\":200.0}}}"));
+        assertTrue(ElasticSqlConverter.convert("SELECT MEDIAN(latency) FROM logs",
+                        new ConverterConfig().hdrSignificantDigits(3))
+                .contains("\"hdr\":{\"number_of_significant_value_digits\":3}"));
+
+        // COUNT(DISTINCT) 不再转换为value_count
+        assertFalse(ElasticSqlConverter.convert("SELECT COUNT(DISTINCT name) FROM users").contains("value_count"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT SUM(DISTINCT age) FROM users"));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT PERCENTILE_APPROX(age, 150) FROM users"));
+    }
+
+    /**
+     * 测试把Elasticsearch响应流式转换为结果行
+     */
+    @Test
+    public void testResultDecoder() throws Exception {
+        List<Map<String, Object>> rows = new ArrayList<>();
+        ResultDecoder hits = ElasticSqlConverter.convertToResult("SELECT name AS n, city, _id FROM users")
+                .getDecoder();
+        assertEquals(2, hits.decode("{\"took\":1,\"hits\":{\"total\":{\"value\":2,\"relation\":\"eq\"},\"hits\":["
+                + "{\"_id\":\"1\",\"_source\":{\"name\":\"a\",\"addr\":{\"city\":\"x\"}}},"
+                + "{\"_id\":\"2\",\"_source\":{\"name\":\"b\",\"tags\":[1,2]}}]}}", rows::add));
+        assertEquals("{n=a, city=null, _id=1}", rows.get(0).toString());
+        assertEquals("{n=b, city=null, _id=2}", rows.get(1).toString());
+
+        // SELECT * 输出展开后的 _source
+        rows.clear();
+        ElasticSqlConverter.convertToResult("SELECT * FROM users").getDecoder().decode(
+                "{\"hits\":{\"hits\":[{\"_source\":{\"name\":\"a\",\"addr\":{\"city\":\"x\"},\"tags\":[1,2]}}]}}",
+                rows::add);
+        assertEquals("[{name=a, addr.city=x, tags=[1, 2]}]", rows.toString());
+
+        // 多层terms聚合按最内层的桶输出，外层的键填入对应的列
+        rows.clear();
+        ResultDecoder nested = ElasticSqlConverter.convertToResult(
+                "SELECT city, gender, COUNT(*) AS cnt, AVG(age) FROM users GROUP BY city, gender").getDecoder();
+        assertEquals(3, nested.decode("{\"hits\":{\"total\":{\"value\":9},\"hits\":[]},\"aggregations\":{"
+                + "\"group_by_city\":{\"buckets\":[{\"key\":\"bj\",\"doc_count\":5,\"group_by_gender\":{\"buckets\":["
+                + "{\"key\":\"f\",\"doc_count\":2,\"avg(age)\":{\"value\":20.5}},"
+                + "{\"key\":\"m\",\"doc_count\":3,\"avg(age)\":{\"value\":30.0}}]}},"
+                + "{\"key\":\"sh\",\"doc_count\":4,\"group_by_gender\":{\"buckets\":["
+                + "{\"key\":\"f\",\"doc_count\":4,\"avg(age)\":{\"value\":null}}]}}]}}}", rows::add));
+        assertEquals("{city=bj, gender=f, cnt=2, AVG(age)=20.5}", rows.get(0).toString());
+        assertEquals("{city=sh, gender=f, cnt=4, AVG(age)=null}", rows.get(2).toString());
+
+        // composite聚合的键和percentiles的取值
+        rows.clear();
+        ResultDecoder composite = ElasticSqlConverter.compositeCursor(
+                "SELECT host, PERCENTILE_APPROX(latency, 0.95) AS p95 FROM logs GROUP BY host").getDecoder();
+        assertEquals(1, composite.decode("{\"aggregations\":{\"group_by\":{\"after_key\":{\"host\":\"h1\"},"
+                + "\"buckets\":[{\"key\":{\"host\":\"h1\"},\"doc_count\":7,"
+                + "\"p95\":{\"values\":{\"95.0\":120.5}}}]}}}", rows::add));
+        assertEquals("{host=h1, p95=120.5}", rows.get(0).toString());
+
+        // 没有GROUP BY的聚合和只统计命中数的查询各输出一行
+        rows.clear();
+        ElasticSqlConverter.convertToResult("SELECT COUNT(*), MAX(age) AS oldest FROM users").getDecoder()
+                .decode("{\"hits\":{\"total\":{\"value\":42}},\"aggregations\":{\"oldest\":{\"value\":80}}}",
+                        rows::add);
+        ElasticSqlConverter.convertToResult("SELECT COUNT(*) AS total FROM users",
+                new ConverterConfig().countEndpoint(true)).getDecoder().decode("{\"count\":42}", rows::add);
+        assertEquals("[{COUNT(*)=42, oldest=80}, {total=42}]", rows.toString());
+    }
+
+    /**
+     * 测试多条SQL合并为一次 _msearch 请求
+     */
+    @Test
+    public void testMultiSearch() throws Exception {
+        MultiSearchRequest request = ElasticSqlConverter.multiSearch(Arrays.asList(
+                "SELECT COUNT(*) AS total FROM users",
+                "SELECT name FROM users WHERE age > 18",
+                "SELECT COUNT(*) AS cnt FROM users"), new ConverterConfig().format(DslFormat.PRETTY));
+        // 相同的请求只发送一次，DSL在一行内
+        assertEquals(2, request.getSearchCount());
+        assertEquals(0, request.getSlot(2));
+        String ndjson = request.toNdjson();
+        assertEquals(4, ndjson.split("\n").length);
+        assertTrue(ndjson.startsWith("{\"index\":\"users\"}\n{\"query\":"));
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        request.writeTo(out);
+        assertEquals(ndjson, out.toString("UTF-8"));
+
+        // 响应按SQL拆分，共用的一项分别按各自的列名输出
+        List<String> rows = new ArrayList<>();
+        assertEquals(3, request.decode("{\"took\":3,\"responses\":["
+                + "{\"hits\":{\"total\":{\"value\":42},\"hits\":[]},\"status\":200},"
+                + "{\"hits\":{\"hits\":[{\"_source\":{\"name\":\"a\"}}]},\"status\":200}]}",
+                (statement, row) -> rows.add(statement + ":" + row)));
+        assertEquals("[0:{total=42}, 2:{cnt=42}, 1:{name=a}]", rows.toString());
+
+        MultiSearchRequest script = ElasticSqlConverter.multiSearchScript(
+                "SELECT * FROM users; SELECT * FROM orders WHERE status = 'paid';");
+        assertEquals(2, script.getSearchCount());
+        assertTrue(script.toNdjson().contains("{\"index\":\"orders\"}"));
+        assertThrows(IOException.class, () -> script.decode(
+                "{\"responses\":[{\"error\":{\"type\":\"index_not_found_exception\"},\"status\":404}]}",
+                (statement, row) -> { }));
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.multiSearchScript("SELECT * FROM users; DELETE FROM users"));
+    }
+
+    /**
+     * 测试按WHERE条件计算routing和时间分区索引
+     */
+    @Test
+    public void testIndexRouting() throws Exception {
+        ConverterConfig config = new ConverterConfig().indexRouting(new IndexRouting()
+                .routingField("logs", "tenant_id")
+                .timePartitions("logs", "ts", "'logs-'yyyy.MM.dd", ChronoUnit.DAYS));
+
+        ConversionResult result = ElasticSqlConverter.convertToResult("SELECT * FROM logs WHERE tenant_id = 'acme' "
+                + "AND ts >= '2024-05-30' AND ts < '2024-06-01 12:00:00'", config);
+        assertEquals("logs", result.getIndex());
+        assertEquals("logs-2024.05.30,logs-2024.05.31,logs-2024.06.01", result.getTargetIndex());
+        assertEquals("acme", result.getRouting());
+
+        result = ElasticSqlConverter.convertToResult(
+                "SELECT * FROM logs WHERE tenant_id IN ('a', 'b') AND ts = 1717200000000", config);
+        assertEquals(Collections.singletonList("logs-2024.06.01"), result.getTargetIndices());
+        assertEquals("a,b", result.getRouting());
+
+        // OR中的条件、没有上界的范围和过多的分区不裁剪
+        result = ElasticSqlConverter.convertToResult(
+                "SELECT * FROM logs WHERE tenant_id = 'acme' OR ts > '2024-05-30'", config);
+        assertEquals("logs", result.getTargetIndex());
+        assertNull(result.getRouting());
+        assertEquals("logs", ElasticSqlConverter.convertToResult(
+                "SELECT * FROM logs WHERE ts > '2024-05-30'", config).getTargetIndex());
+        assertEquals("logs", ElasticSqlConverter.convertToResult(
+                "SELECT * FROM logs WHERE ts BETWEEN '2020-01-01' AND '2024-01-01'", config).getTargetIndex());
+        assertEquals("users", ElasticSqlConverter.convertToResult(
+                "SELECT * FROM users WHERE tenant_id = 'acme'", config).getTargetIndex());
+
+        // 对象的其他子字段不是路由字段，映射中的keyword子字段是
+        assertNull(ElasticSqlConverter.convertToResult(
+                "SELECT * FROM logs WHERE tenant_id.x = 'acme'", config).getRouting());
+        ConverterConfig mapped = new ConverterConfig().indexRouting(config.getIndexRouting())
+                .schemaRegistry(new SchemaRegistry().register("logs", "{\"properties\":{\"tenant_id\":{"
+                        + "\"type\":\"text\",\"fields\":{\"raw\":{\"type\":\"keyword\"}}}}}"));
+        result = ElasticSqlConverter.convertToResult("SELECT * FROM logs WHERE tenant_id = 'acme'", mapped);
+        assertTrue(result.getDsl().contains("{\"term\":{\"tenant_id.raw\":\"acme\"}}"));
+        assertEquals("acme", result.getRouting());
+        assertNull(ElasticSqlConverter.convertToResult(
+                "SELECT * FROM logs WHERE tenant_id.x = 'acme'", mapped).getRouting());
+
+        // _msearch的header中带上裁剪后的索引和routing
+        MultiSearchRequest request = ElasticSqlConverter.multiSearch(Collections.singletonList(
+                "SELECT COUNT(*) FROM logs WHERE tenant_id = 'acme' AND ts = '2024-06-01'"), config);
+        assertTrue(request.toNdjson().startsWith(
+                "{\"index\":\"logs-2024.06.01\",\"ignore_unavailable\":true,\"routing\":\"acme\"}\n"));
+    }
+
+    /**
+     * 测试提示注释中的执行选项
+     */
+    @Test
+    public void testQueryHints() throws Exception {
+        String sql = "SELECT /*+ REQUEST_CACHE PREFERENCE('_local') TIMEOUT('200ms') TERMINATE_AFTER(10000) PROFILE */ "
+                + "status, COUNT(*) FROM orders GROUP BY status";
+        ConversionResult result = ElasticSqlConverter.convertToResult(sql);
+        assertTrue(result.getDsl().startsWith("{\"query\":{\"bool\":{\"must\":[{\"match_all\":{}}]}},"
+                + "\"timeout\":\"200ms\",\"terminate_after\":10000,\"profile\":true,"));
+        assertEquals("{request_cache=true, preference=_local}", result.getRequestParams().toString());
+        assertEquals(result.getDsl(), ElasticSqlConverter.convert(sql,
+                new ConverterConfig().parseMode(ParseMode.FAST_PATH)));
+
+        // _count只接受preference和terminate_after参数
+        result = ElasticSqlConverter.convertToResult(
+                "SELECT /*+ request_cache(false), terminate_after(5), timeout('1s') */ COUNT(*) FROM orders",
+                new ConverterConfig().countEndpoint(true));
+        assertEquals("{terminate_after=5}", result.getRequestParams().toString());
+        assertEquals(1, result.getWarnings().size());
+
+        // 不认识的提示给出警告，没有提示时参数为空
+        assertEquals(Collections.singletonList("Unknown hint INDEX is ignored"), ElasticSqlConverter.convertToResult(
+                "SELECT /*+ INDEX(users idx) */ * FROM users").getWarnings());
+        assertTrue(ElasticSqlConverter.convertToResult("SELECT * FROM users").getRequestParams().isEmpty());
+        assertThrows(UnsupportedOperationException.class,
+                () -> ElasticSqlConverter.convert("SELECT /*+ TIMEOUT('soon') */ * FROM users"));
+
+        MultiSearchRequest request = ElasticSqlConverter.multiSearch(Collections.singletonList(
+                "SELECT /*+ REQUEST_CACHE PREFERENCE('_local') */ COUNT(*) FROM orders"));
+        assertTrue(request.toNdjson().startsWith(
+                "{\"index\":\"orders\",\"request_cache\":true,\"preference\":\"_local\"}\n"));
+    }
+}